@@ -0,0 +1,79 @@
+package io.cloudtrust.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.cloudtrust.keycloak.models.AccreditationModel;
+import io.cloudtrust.keycloak.models.CompiledAccreditation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the accreditation (de)serialization done at each token mapping
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccreditationModelBenchmark {
+    @Param({"minimal", "full"})
+    public String accreditation;
+
+    private String json;
+    private AccreditationModel model;
+    private CompiledAccreditation compiled;
+    private List<String> accreditations;
+    private LocalDate today;
+
+    @Setup
+    public void setup() {
+        if ("minimal".equals(accreditation)) {
+            json = "{\"type\":\"SHADOW\"}";
+        } else {
+            json = "{\"type\":\"SHADOW\",\"expiryDate\":\"31.12.2039\",\"revoked\":false,\"creationMillis\":1643379990000}";
+        }
+        model = AccreditationModel.tryParse(json);
+        compiled = CompiledAccreditation.compile(json);
+        accreditations = Collections.nCopies(20, json);
+        today = LocalDate.now();
+    }
+
+    @Benchmark
+    public AccreditationModel tryParse() {
+        return AccreditationModel.tryParse(json);
+    }
+
+    @Benchmark
+    public String toJSON() throws JsonProcessingException {
+        return model.toJSON();
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return model.isValid();
+    }
+
+    @Benchmark
+    public boolean compiledIsValid() {
+        return compiled.isValid(today);
+    }
+
+    @Benchmark
+    public List<String> validAccreditations() {
+        return CompiledAccreditation.validAccreditations(accreditations, today);
+    }
+}
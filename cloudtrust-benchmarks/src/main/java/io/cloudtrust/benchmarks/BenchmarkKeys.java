@@ -0,0 +1,51 @@
+package io.cloudtrust.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the keys CryptoUtil loads from the environment. Benchmarks fail fast when those keys are not defined
+ * instead of measuring the error path.
+ */
+final class BenchmarkKeys {
+    static final String DB_ENCRYPTION_KEY = "DB_ENCRYPTION_KEY";
+    static final String DB_HMAC_KEY = "DB_HMAC_KEY";
+
+    private BenchmarkKeys() {
+    }
+
+    static void requireEnvironment(String... envVariableNames) {
+        for (String name : envVariableNames) {
+            if (System.getenv(name) == null) {
+                throw new IllegalStateException("Environment variable " + name + " must be defined to run this benchmark (see README)");
+            }
+        }
+    }
+
+    /**
+     * Returns the current database encryption key, i.e. the one CryptoUtil uses for the legacy format
+     */
+    static SecretKey currentEncryptionKey() throws IOException {
+        requireEnvironment(DB_ENCRYPTION_KEY);
+        List<Map<String, String>> keys = new ObjectMapper().readValue(System.getenv(DB_ENCRYPTION_KEY),
+                new TypeReference<List<Map<String, String>>>() {
+                });
+        Map<String, String> current = keys.stream()
+                .max(Comparator.comparingInt(k -> priority(k.get("kid"))))
+                .orElseThrow(() -> new IllegalStateException("No key defined in " + DB_ENCRYPTION_KEY));
+        byte[] value = Base64.getDecoder().decode(current.get("value"));
+        return new SecretKeySpec(value, "AES");
+    }
+
+    private static int priority(String kid) {
+        return Integer.parseInt(kid.substring(kid.lastIndexOf('_') + 1));
+    }
+}
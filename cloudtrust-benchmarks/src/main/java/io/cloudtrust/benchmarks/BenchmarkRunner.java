@@ -0,0 +1,60 @@
+package io.cloudtrust.benchmarks;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks once per requested thread count and writes all the results in a single JSON file, to be compared
+ * with the results of another run on the same machine and JDK.
+ * <p>
+ * Usage: java -cp target/benchmarks.jar io.cloudtrust.benchmarks.BenchmarkRunner [threads] [output] [include regexp]
+ * <ul>
+ *     <li>threads: comma-separated thread counts (default: 1,4,16)</li>
+ *     <li>output: result file (default: target/jmh-results.json)</li>
+ *     <li>include regexp: benchmarks to run (default: all benchmarks of this module)</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_THREADS = "1,4,16";
+    private static final String DEFAULT_OUTPUT = "target/jmh-results.json";
+    private static final String DEFAULT_INCLUDE = "io\\.cloudtrust\\.benchmarks\\..*";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String threads = args.length > 0 ? args[0] : DEFAULT_THREADS;
+        Path output = Paths.get(args.length > 1 ? args[1] : DEFAULT_OUTPUT);
+        String include = args.length > 2 ? args[2] : DEFAULT_INCLUDE;
+
+        List<RunResult> results = new ArrayList<>();
+        for (String threadCount : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threadCount.trim()))
+                    .build();
+            results.addAll(new Runner(options).run());
+        }
+
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, StandardCharsets.UTF_8.name())) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.cloudtrust.benchmarks;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the CryptoUtil hot paths. Database storage methods need DB_ENCRYPTION_KEY and DB_HMAC_KEY to be
+ * defined in the environment of the forked JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoUtilBenchmark {
+    @Param({"16", "256", "4096", "65536"})
+    public int payloadSize;
+
+    private SecretKey aesKey;
+    private byte[] payload;
+    private String text;
+    private String gcmEncrypted;
+    private String dbEncrypted;
+    private String legacyEncrypted;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkKeys.requireEnvironment(BenchmarkKeys.DB_ENCRYPTION_KEY, BenchmarkKeys.DB_HMAC_KEY);
+
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        aesKey = keyGen.generateKey();
+
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        text = new String(chars);
+
+        gcmEncrypted = CryptoUtil.gcmEncryptData(aesKey, payload);
+        dbEncrypted = CryptoUtil.encryptForDatabaseStorage(payload);
+        // legacy values are raw GCM data encrypted with the current key, without the kid structure
+        legacyEncrypted = CryptoUtil.gcmEncryptData(BenchmarkKeys.currentEncryptionKey(), payload);
+    }
+
+    @Benchmark
+    public String gcmEncrypt() throws BadPaddingException, IllegalBlockSizeException {
+        return CryptoUtil.gcmEncryptData(aesKey, payload);
+    }
+
+    @Benchmark
+    public byte[] gcmDecrypt() throws BadPaddingException, IllegalBlockSizeException {
+        return CryptoUtil.gcmDecryptData(aesKey, gcmEncrypted);
+    }
+
+    @Benchmark
+    public String encryptForDatabaseStorage() {
+        return CryptoUtil.encryptForDatabaseStorage(payload);
+    }
+
+    @Benchmark
+    public byte[] decryptFromDatabaseStorage() {
+        return CryptoUtil.decryptFromDatabaseStorage(dbEncrypted);
+    }
+
+    @Benchmark
+    public byte[] decryptFromDatabaseStorageLegacy() {
+        return CryptoUtil.decryptFromDatabaseStorage(legacyEncrypted);
+    }
+
+    @Benchmark
+    public byte[] decryptFromDatabaseStorageClearText() {
+        return CryptoUtil.decryptFromDatabaseStorage(text);
+    }
+
+    @Benchmark
+    public String computeHmacForDatabaseStorage() {
+        return CryptoUtil.computeHmacForDatabaseStorage(text);
+    }
+}
@@ -5,13 +5,18 @@ import javax.crypto.spec.SecretKeySpec;
 
 public class AesKeyEntry extends KeyEntry {
     private static final String AES_KEY_TYPE = "AES";
+    static final String EMPTY_KEY_TYPE = "NONE";
+
+    static boolean isEmptyKey(SecretKey key) {
+        return key == null || EMPTY_KEY_TYPE.equals(key.getAlgorithm());
+    }
 
     @Override
     SecretKey buildKeyFromBytesValue(byte[] value) {
         if (value == null) {
             return null;
         } else if (value.length == 0) {
-            return new SecretKeySpec(new byte[]{0x01}, 0, 1, "NONE");
+            return new SecretKeySpec(new byte[]{0x01}, 0, 1, EMPTY_KEY_TYPE);
         } else {
             return new SecretKeySpec(value, 0, value.length, AES_KEY_TYPE);
         }
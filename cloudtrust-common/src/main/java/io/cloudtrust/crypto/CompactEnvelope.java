@@ -0,0 +1,96 @@
+package io.cloudtrust.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+/**
+ * Compact envelope for data stored into the database:
+ * <pre>
+ * MAGIC (1 byte) | VERSION (1 byte) | kid length (1 byte) | kid (ASCII) | payload
+ * </pre>
+ * where payload is the IV followed by the GCM ciphered data (or the data itself when the key is empty).
+ * The whole envelope is encoded with a single base64 pass.
+ */
+class CompactEnvelope {
+    static final byte MAGIC = (byte) 0xC7;
+    static final byte VERSION = 0x01;
+    private static final int KID_LENGTH_OFFSET = 2;
+    private static final int KID_OFFSET = 3;
+    private static final int MAX_KID_LENGTH = 255;
+    private static final Pattern KID_PATTERN = Pattern.compile("[\\x21-\\x7e]*_\\d+");
+    // MAGIC and VERSION always produce the same first two base64 characters
+    private static final String TEXT_PREFIX = Base64.getEncoder().encodeToString(new byte[]{MAGIC, VERSION, 0}).substring(0, 2);
+
+    final String kid;
+    final byte[] buffer;
+    final int payloadOffset;
+
+    private CompactEnvelope(String kid, byte[] buffer, int payloadOffset) {
+        this.kid = kid;
+        this.buffer = buffer;
+        this.payloadOffset = payloadOffset;
+    }
+
+    int payloadLength() {
+        return buffer.length - payloadOffset;
+    }
+
+    /**
+     * Creates a buffer with the envelope header already written, followed by payloadLength free bytes
+     */
+    static byte[] allocate(String kid, int payloadLength) {
+        byte[] kidBytes = kid.getBytes(StandardCharsets.US_ASCII);
+        if (kidBytes.length > MAX_KID_LENGTH) {
+            throw new IllegalArgumentException("Key identifier is too long: " + kid);
+        }
+        byte[] buffer = new byte[headerLength(kidBytes.length) + payloadLength];
+        buffer[0] = MAGIC;
+        buffer[1] = VERSION;
+        buffer[KID_LENGTH_OFFSET] = (byte) kidBytes.length;
+        System.arraycopy(kidBytes, 0, buffer, KID_OFFSET, kidBytes.length);
+        return buffer;
+    }
+
+    static int headerLength(String kid) {
+        return headerLength(kid.length());
+    }
+
+    private static int headerLength(int kidLength) {
+        return KID_OFFSET + kidLength;
+    }
+
+    static String encode(byte[] buffer) {
+        return Base64.getEncoder().withoutPadding().encodeToString(buffer);
+    }
+
+    /**
+     * Parses a compact envelope
+     *
+     * @param data value read from the database
+     * @return the parsed envelope or null if the value is not a compact envelope
+     */
+    static CompactEnvelope parse(String data) {
+        if (data == null || !data.startsWith(TEXT_PREFIX)) {
+            return null;
+        }
+        byte[] buffer;
+        try {
+            buffer = Base64.getDecoder().decode(data);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (buffer.length <= KID_OFFSET || buffer[0] != MAGIC || buffer[1] != VERSION) {
+            return null;
+        }
+        int kidLength = buffer[KID_LENGTH_OFFSET] & 0xFF;
+        if (buffer.length < headerLength(kidLength)) {
+            return null;
+        }
+        String kid = new String(buffer, KID_OFFSET, kidLength, StandardCharsets.US_ASCII);
+        if (!KID_PATTERN.matcher(kid).matches()) {
+            return null;
+        }
+        return new CompactEnvelope(kid, buffer, headerLength(kidLength));
+    }
+}
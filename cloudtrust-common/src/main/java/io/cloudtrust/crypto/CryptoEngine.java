@@ -0,0 +1,212 @@
+package io.cloudtrust.crypto;
+
+import io.cloudtrust.exception.CloudtrustRuntimeException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reusable crypto engine used by the hot paths of {@link CryptoUtil}.
+ * Looking up a Cipher or a Mac walks the whole JCA provider list: instances are created once per thread and
+ * re-initialized for each operation. HMAC instances are kept initialized per key id as long as the key does not change.
+ * IVs are drawn from a single shared SecureRandom.
+ */
+public final class CryptoEngine {
+    static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
+    static final String HMAC_SHA512 = "HmacSHA512";
+    static final int IV_SIZE = 12; //size recommended by NIST
+    static final int GCM_TAG_LENGTH = 128;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> GCM_CIPHER = ThreadLocal.withInitial(CryptoEngine::newGcmCipher);
+    private static final ThreadLocal<Map<String, InitializedMac>> HMACS = ThreadLocal.withInitial(HashMap::new);
+
+    //Avoid class instantiation
+    private CryptoEngine() {
+    }
+
+    /**
+     * Creates a new random initialization vector
+     *
+     * @return IV_SIZE random bytes
+     */
+    public static byte[] newIv() {
+        byte[] iv = new byte[IV_SIZE];
+        SECURE_RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    /**
+     * Encrypts the given bytes with AES/GCM/NoPadding using a fresh random IV.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param data   The bytes to encrypt
+     * @return The IV followed by the ciphered data
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static byte[] gcmEncrypt(SecretKey aesKey, byte[] data) throws BadPaddingException, IllegalBlockSizeException {
+        byte[] output = new byte[gcmOutputLength(data.length)];
+        gcmEncrypt(aesKey, data, output, 0);
+        return output;
+    }
+
+    /**
+     * Encrypts the given bytes with AES/GCM/NoPadding using a fresh random IV and writes the IV followed by the
+     * ciphered data in the output buffer.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param data   The bytes to encrypt
+     * @param output Output buffer, must have at least gcmOutputLength(data.length) bytes after offset
+     * @param offset Offset where the IV is written
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    static void gcmEncrypt(SecretKey aesKey, byte[] data, byte[] output, int offset) throws BadPaddingException, IllegalBlockSizeException {
+        byte[] iv = newIv();
+        try {
+            Cipher cipher = gcmCipher(Cipher.ENCRYPT_MODE, aesKey, iv, 0);
+            System.arraycopy(iv, 0, output, offset, IV_SIZE);
+            cipher.doFinal(data, 0, data.length, output, offset + IV_SIZE);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
+        }
+    }
+
+    /**
+     * Gets the size of the IV and ciphered data produced for a given plain data size
+     *
+     * @param dataLength length of the plain data
+     * @return the length of the encryption output
+     */
+    static int gcmOutputLength(int dataLength) {
+        return IV_SIZE + dataLength + GCM_TAG_LENGTH / 8;
+    }
+
+    /**
+     * Decrypts bytes produced by {@link #gcmEncrypt(SecretKey, byte[])}.
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param data   Buffer containing the IV followed by the ciphered data
+     * @param offset Offset of the IV in the buffer
+     * @param length Length of the IV and the ciphered data
+     * @return The decrypted data
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     */
+    public static byte[] gcmDecrypt(SecretKey aesKey, byte[] data, int offset, int length) throws BadPaddingException, IllegalBlockSizeException {
+        Cipher cipher = gcmCipher(Cipher.DECRYPT_MODE, aesKey, data, offset);
+        return cipher.doFinal(data, offset + IV_SIZE, length - IV_SIZE);
+    }
+
+    /**
+     * Encrypts the remaining bytes of the input buffer with AES/GCM/NoPadding using a fresh random IV and writes the IV
+     * followed by the ciphered data in the output buffer. Direct buffers are processed without intermediate copy.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param input  The bytes to encrypt
+     * @param output Output buffer, must have at least gcmOutputLength(input.remaining()) bytes remaining
+     * @return the number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmEncrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        if (output.remaining() < gcmOutputLength(input.remaining())) {
+            throw new ShortBufferException("Output buffer needs " + gcmOutputLength(input.remaining()) + " bytes");
+        }
+        byte[] iv = newIv();
+        Cipher cipher = gcmCipher(Cipher.ENCRYPT_MODE, aesKey, iv, 0);
+        output.put(iv);
+        return IV_SIZE + cipher.doFinal(input, output);
+    }
+
+    /**
+     * Decrypts the remaining bytes of the input buffer, produced by {@link #gcmEncrypt(SecretKey, ByteBuffer, ByteBuffer)}
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The IV followed by the ciphered data
+     * @param output Output buffer for the decrypted data
+     * @return the number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmDecrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        if (input.remaining() < IV_SIZE) {
+            throw new IllegalBlockSizeException("Input is shorter than the IV");
+        }
+        byte[] iv = new byte[IV_SIZE];
+        input.get(iv);
+        return gcmCipher(Cipher.DECRYPT_MODE, aesKey, iv, 0).doFinal(input, output);
+    }
+
+    /**
+     * Computes the HMAC-SHA512 of the given data. The Mac initialized for the given key id is reused by the
+     * current thread until another key is submitted for this key id.
+     *
+     * @param kid  Key identifier
+     * @param key  HMAC key
+     * @param data data to HMAC
+     * @return the HMAC value
+     */
+    public static byte[] hmac(String kid, SecretKey key, byte[] data) {
+        return initializedMac(kid, key).doFinal(data);
+    }
+
+    static Cipher gcmCipher(int mode, SecretKey aesKey, byte[] iv, int ivOffset) {
+        try {
+            Cipher cipher = GCM_CIPHER.get();
+            cipher.init(mode, aesKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv, ivOffset, IV_SIZE));
+            return cipher;
+        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Error in the gcm algorithm parameters", e);
+        }
+    }
+
+    static Mac initializedMac(String kid, SecretKey key) {
+        Map<String, InitializedMac> macs = HMACS.get();
+        InitializedMac cached = macs.get(kid);
+        if (cached == null || cached.key != key) {
+            cached = new InitializedMac(key);
+            macs.put(kid, cached);
+        }
+        return cached.mac;
+    }
+
+    private static Cipher newGcmCipher() {
+        try {
+            return Cipher.getInstance(AES_GCM_NOPADDING);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Cannot create a " + AES_GCM_NOPADDING + " cipher", e);
+        }
+    }
+
+    private static class InitializedMac {
+        private final SecretKey key;
+        private final Mac mac;
+
+        private InitializedMac(SecretKey key) {
+            try {
+                this.key = key;
+                this.mac = Mac.getInstance(HMAC_SHA512);
+                this.mac.init(key);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new CloudtrustRuntimeException("Cannot initialize " + HMAC_SHA512, e);
+            }
+        }
+    }
+}
@@ -2,51 +2,55 @@ package io.cloudtrust.crypto;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.cloudtrust.exception.CloudtrustRuntimeException;
+import io.cloudtrust.json.JsonUtil;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Utility class for the module
  */
 public class CryptoUtil {
+    private static final Logger LOG = Logger.getLogger(CryptoUtil.class.getName());
 
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
     private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
-
-    private static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
-    private static final String HMAC_SHA512 = "HmacSHA512";
-    private static final int IV_SIZE = 12; //size recommended by NIST
+    private static final String DB_KEYS_DIRECTORY_ENV_VAR_NAME = "DB_KEYS_DIRECTORY";
+    private static final String DB_KEYS_WATCH_INTERVAL_ENV_VAR_NAME = "DB_KEYS_WATCH_INTERVAL";
+    private static final Duration DEFAULT_WATCH_INTERVAL = Duration.ofSeconds(10);
 
     private static final TypeReference<List<AesKeyEntry>> aesKeysTypeRef = new TypeReference<List<AesKeyEntry>>() {
     };
     private static final TypeReference<List<HmacKeyEntry>> hmacKeysTypeRef = new TypeReference<List<HmacKeyEntry>>() {
     };
 
-    private static KeyEntry CURRENT_DB_HMAC_KEY;
-    private static Map<String, SecretKey> HISTORY_DB_HMAC_KEY;
-    private static KeyEntry CURRENT_DB_ENCRYPTION_KEY;
-    private static Map<String, SecretKey> HISTORY_DB_ENCRYPTION_KEY;
+    // key rings are loaded lazily and then read without lock
+    private static final AtomicReference<KeyRing> DB_HMAC_KEY_RING = new AtomicReference<>();
+    private static final AtomicReference<KeyRing> DB_ENCRYPTION_KEY_RING = new AtomicReference<>();
+    private static final AtomicReference<EnvelopeFormat> ENVELOPE_FORMAT = new AtomicReference<>();
+    private static final AtomicReference<KeySource> KEY_SOURCE = new AtomicReference<>();
+    private static final List<String> KEY_NAMES = Arrays.asList(DB_ENCRYPTION_KEY_ENV_VAR_NAME, DB_HMAC_KEY_ENV_VAR_NAME);
+    private static final AtomicReference<DecryptedValueCache> DECRYPTION_CACHE = new AtomicReference<>(DecryptedValueCache.fromEnvironment());
 
     //Avoid class instantiation
     private CryptoUtil() {
@@ -75,21 +79,7 @@ public class CryptoUtil {
      * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
      */
     public static String gcmEncryptData(SecretKey aesKey, byte[] data) throws BadPaddingException, IllegalBlockSizeException {
-        SecureRandom sr = new SecureRandom();
-        byte[] iv = new byte[IV_SIZE];
-        sr.nextBytes(iv);
-        try {
-            final Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, aesKey, parameterSpec);
-            byte[] cipheredText = cipher.doFinal(data);
-            ByteBuffer gcmData = ByteBuffer.allocate(iv.length + cipheredText.length);
-            gcmData.put(iv);
-            gcmData.put(cipheredText);
-            return Base64.getEncoder().encodeToString(gcmData.array());
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new IllegalStateException("Error in the gcm encryption algorithm parameters", e);
-        }
+        return Base64.getEncoder().encodeToString(CryptoEngine.gcmEncrypt(aesKey, data));
     }
 
     /**
@@ -105,19 +95,8 @@ public class CryptoUtil {
         if (encryptedData == null) {
             return null;
         }
-        ByteBuffer gcmData = ByteBuffer.wrap(Base64.getDecoder().decode(encryptedData));
-        byte[] iv = new byte[IV_SIZE];
-        gcmData.get(iv);
-        byte[] cipheredText = new byte[gcmData.remaining()];
-        gcmData.get(cipheredText);
-        try {
-            Cipher cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            GCMParameterSpec parameterSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.DECRYPT_MODE, aesKey, parameterSpec);
-            return cipher.doFinal(cipheredText);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException | NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new IllegalStateException("Error in the gcm decryption algorithm parameters", e);
-        }
+        byte[] gcmData = Base64.getDecoder().decode(encryptedData);
+        return CryptoEngine.gcmDecrypt(aesKey, gcmData, 0, gcmData.length);
     }
 
     /**
@@ -134,60 +113,280 @@ public class CryptoUtil {
     }
 
     /**
-     * Encrypt data that are meant to be stored encrypted into the database
+     * Encrypts the remaining bytes of a buffer with the AES/GCM/NoPadding algorithm.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param input  The bytes to encrypt
+     * @param output Buffer receiving the IV followed by the encrypted data
+     * @return the number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmEncrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        return CryptoEngine.gcmEncrypt(aesKey, input, output);
+    }
+
+    /**
+     * Decrypts the remaining bytes of a buffer with the AES/GCM/NoPadding algorithm.
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The IV followed by the encrypted data
+     * @param output Buffer receiving the decrypted data
+     * @return the number of bytes written in the output buffer
+     * @throws BadPaddingException       thrown if there's a problem with the submitted data
+     * @throws IllegalBlockSizeException thrown if there's a problem with the submitted data
+     * @throws ShortBufferException      thrown if the output buffer is too small
+     */
+    public static int gcmDecrypt(SecretKey aesKey, ByteBuffer input, ByteBuffer output) throws BadPaddingException, IllegalBlockSizeException, ShortBufferException {
+        return CryptoEngine.gcmDecrypt(aesKey, input, output);
+    }
+
+    /**
+     * Encrypts a stream of any size with the AES/GCM/NoPadding algorithm, in chunks (see {@link GcmEncryptingOutputStream}).
+     * The output stream is not closed.
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param input  The data to encrypt
+     * @param output The stream receiving the encrypted data
+     * @throws IOException if the streams cannot be read or written
+     */
+    public static void gcmEncrypt(SecretKey aesKey, InputStream input, OutputStream output) throws IOException {
+        GcmEncryptingOutputStream encryptingStream = gcmEncryptingStream(aesKey, output);
+        copy(input, encryptingStream);
+        encryptingStream.finish();
+    }
+
+    /**
+     * Decrypts a stream produced by {@link #gcmEncrypt(SecretKey, InputStream, OutputStream)}.
+     * The output stream is not closed.
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The encrypted data
+     * @param output The stream receiving the decrypted data
+     * @throws IOException if the streams cannot be read or written, or if the encrypted data was altered
+     */
+    public static void gcmDecrypt(SecretKey aesKey, InputStream input, OutputStream output) throws IOException {
+        copy(gcmDecryptingStream(aesKey, input), output);
+    }
+
+    /**
+     * Creates a stream encrypting the data written to it with the AES/GCM/NoPadding algorithm
+     *
+     * @param aesKey The AES secret key to encrypt the data
+     * @param output The stream receiving the encrypted data
+     * @return the encrypting stream, which must be finished or closed
+     * @throws IOException if the stream header cannot be written
+     */
+    public static GcmEncryptingOutputStream gcmEncryptingStream(SecretKey aesKey, OutputStream output) throws IOException {
+        return new GcmEncryptingOutputStream(output, aesKey, null, StreamEnvelope.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a stream decrypting data produced by an encrypting stream
+     *
+     * @param aesKey The AES secret key used to encrypt the data
+     * @param input  The encrypted data
+     * @return the decrypting stream
+     * @throws IOException if the stream header cannot be read
+     */
+    public static GcmDecryptingInputStream gcmDecryptingStream(SecretKey aesKey, InputStream input) throws IOException {
+        return new GcmDecryptingInputStream(input, kid -> aesKey);
+    }
+
+    /**
+     * Encrypt data that are meant to be stored encrypted into the database.
+     * The output format is configured by the DB_ENCRYPTION_ENVELOPE environment variable (see {@link EnvelopeFormat})
      *
      * @param data data to be encrypted
      * @return base64 representation of the encrypted data
      */
     public static String encryptForDatabaseStorage(byte[] data) {
-        try {
-            SecretKey dbEncryptionKey = getCtDatabaseEncryptionKey().key;
-            String encData = Base64.getEncoder().encodeToString(data);
-            if (dbEncryptionKey != null && !dbEncryptionKey.getAlgorithm().equals("NONE")) {
-                encData = gcmEncryptData(dbEncryptionKey, data);
-            }
-            EncryptedData encryptedData = new EncryptedData(getCtDatabaseEncryptionKey().kid, encData);
-            return new ObjectMapper().writeValueAsString(encryptedData);
-        } catch (BadPaddingException | IllegalBlockSizeException | JsonProcessingException ex) {
-            throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
-        }
+        return encryptForDatabaseStorage(data, getEnvelopeFormat());
     }
 
     /**
-     * Decrypt data that are stored encrypted into the database
+     * Encrypt data that are meant to be stored encrypted into the database
+     *
+     * @param data   data to be encrypted
+     * @param format format of the output
+     * @return base64 representation of the encrypted data
+     */
+    public static String encryptForDatabaseStorage(byte[] data, EnvelopeFormat format) {
+        return new DatabaseEncryptor(getCtDatabaseEncryptionKeyRing().current(), format).encrypt(data);
+    }
+
+    /**
+     * Encrypt a batch of data that are meant to be stored encrypted into the database.
+     * The key and the serializer are loaded once for the whole batch.
+     *
+     * @param data data to be encrypted
+     * @return base64 representations of the encrypted data, in the same order as the input
+     */
+    public static List<String> encryptForDatabaseStorage(List<byte[]> data) {
+        return encryptForDatabaseStorage(data.stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * Encrypt a batch of data that are meant to be stored encrypted into the database, splitting the work across the
+     * threads of the given pool.
+     *
+     * @param data data to be encrypted
+     * @param pool pool running the encryption
+     * @return base64 representations of the encrypted data, in the same order as the input
+     */
+    public static List<String> encryptForDatabaseStorage(List<byte[]> data, ForkJoinPool pool) {
+        DatabaseEncryptor encryptor = new DatabaseEncryptor(getCtDatabaseEncryptionKeyRing().current(), getEnvelopeFormat());
+        return pool.submit(() -> data.parallelStream().map(encryptor::encrypt).collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Lazily encrypt a stream of data that are meant to be stored encrypted into the database.
+     * The key used for the whole stream is the current one when this method is called.
+     *
+     * @param data data to be encrypted
+     * @return stream of base64 representations of the encrypted data
+     */
+    public static Stream<String> encryptForDatabaseStorage(Stream<byte[]> data) {
+        DatabaseEncryptor encryptor = new DatabaseEncryptor(getCtDatabaseEncryptionKeyRing().current(), getEnvelopeFormat());
+        return data.map(encryptor::encrypt);
+    }
+
+    /**
+     * Decrypt data that are stored encrypted into the database.
+     * Supported formats are the compact envelope, the JSON structure and the legacy raw GCM data (or clear text).
      *
      * @param data base64-encoded data to be decrypted
      * @return decrypted data as a UTF-8 encoded String
      */
     public static byte[] decryptFromDatabaseStorage(String data) {
-        try {
-            // ensure keys are loaded
-            getCtDatabaseEncryptionKey();
-            // parse json structure
-            EncryptedData encData = new ObjectMapper().readValue(data, EncryptedData.class);
-            SecretKey dbEncryptionKey = HISTORY_DB_ENCRYPTION_KEY.get(encData.kid);
-            if (dbEncryptionKey == null) {
-                // key cannot be found
-                throw new IllegalStateException("Required key " + encData.kid + " cannot be found");
-            }
-            if (dbEncryptionKey.getEncoded().length == 1) {
-                // empty key, no decryption necessary
-                return Base64.getDecoder().decode(encData.val);
-            }
-            return gcmDecryptData(dbEncryptionKey, encData.val);
-        } catch (BadPaddingException | IllegalBlockSizeException ex) {
-            throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
-        } catch (JsonProcessingException ex) {
-            // legacy: support for missing structure
-            // try to decrypt with the current key
-            try {
-                SecretKey key = getCtDatabaseEncryptionKey().key;
-                return gcmDecryptData(key, data);
-            } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exc) {
-                // if decryption fails, assumes that the data is in clear
-                return data.getBytes(StandardCharsets.UTF_8);
+        return databaseDecryptor().decrypt(data);
+    }
+
+    /**
+     * Decrypt a batch of data that are stored encrypted into the database.
+     * The keys and the deserializer are loaded once for the whole batch.
+     *
+     * @param data base64-encoded data to be decrypted
+     * @return decrypted data, in the same order as the input
+     */
+    public static List<byte[]> decryptFromDatabaseStorage(List<String> data) {
+        return decryptFromDatabaseStorage(data.stream()).collect(Collectors.toList());
+    }
+
+    /**
+     * Decrypt a batch of data that are stored encrypted into the database, splitting the work across the threads of
+     * the given pool.
+     *
+     * @param data base64-encoded data to be decrypted
+     * @param pool pool running the decryption
+     * @return decrypted data, in the same order as the input
+     */
+    public static List<byte[]> decryptFromDatabaseStorage(List<String> data, ForkJoinPool pool) {
+        DatabaseDecryptor decryptor = databaseDecryptor();
+        return pool.submit(() -> data.parallelStream().map(decryptor::decrypt).collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Lazily decrypt a stream of data that are stored encrypted into the database.
+     * The keys used for the whole stream are the ones loaded when this method is called.
+     *
+     * @param data base64-encoded data to be decrypted
+     * @return stream of decrypted data
+     */
+    public static Stream<byte[]> decryptFromDatabaseStorage(Stream<String> data) {
+        return data.map(databaseDecryptor()::decrypt);
+    }
+
+    /**
+     * Creates a stream encrypting large data that are meant to be stored encrypted, with the current database key.
+     * The key identifier is written in the stream header.
+     *
+     * @param output the stream receiving the encrypted data
+     * @return the encrypting stream, which must be finished or closed
+     * @throws IOException if the stream header cannot be written
+     */
+    public static GcmEncryptingOutputStream encryptingStreamForDatabaseStorage(OutputStream output) throws IOException {
+        KeyEntry keyEntry = getCtDatabaseEncryptionKeyRing().current();
+        return new GcmEncryptingOutputStream(output, keyEntry.key, keyEntry.kid, StreamEnvelope.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a stream decrypting data produced by {@link #encryptingStreamForDatabaseStorage(OutputStream)}
+     *
+     * @param input the encrypted data
+     * @return the decrypting stream
+     * @throws IOException if the stream header cannot be read
+     */
+    public static GcmDecryptingInputStream decryptingStreamFromDatabaseStorage(InputStream input) throws IOException {
+        KeyRing keyRing = getCtDatabaseEncryptionKeyRing();
+        return new GcmDecryptingInputStream(input, kid -> {
+            SecretKey key = kid == null ? null : keyRing.get(kid);
+            if (key == null) {
+                throw new IllegalStateException("Required key " + kid + " cannot be found");
             }
-        }
+            return key;
+        });
+    }
+
+    /**
+     * Gets the identifier of the key used to encrypt a value stored into the database
+     *
+     * @param data value read from the database
+     * @return the key identifier or null if the value is stored in the legacy format (or in clear)
+     */
+    public static String getDatabaseStorageKid(String data) {
+        return databaseDecryptor().kidOf(data);
+    }
+
+    /**
+     * Tells whether a value stored into the database has been encrypted with a key which is not the current one anymore
+     *
+     * @param data value read from the database
+     * @return true if the value should be re-encrypted
+     */
+    public static boolean needsReEncryption(String data) {
+        return databaseDecryptor().isStale(data);
+    }
+
+    /**
+     * Re-encrypt with the current key the values which have been encrypted with an older key.
+     * Values already encrypted with the current key and values without key identifier (legacy format) are returned as is.
+     *
+     * @param data values read from the database
+     * @return the values to be stored, in the same order as the input
+     */
+    public static List<String> reEncryptForDatabaseStorage(List<String> data) {
+        // use the same snapshot of the keys for decryption and encryption
+        KeyRing keyRing = getCtDatabaseEncryptionKeyRing();
+        DatabaseDecryptor decryptor = new DatabaseDecryptor(keyRing);
+        DatabaseEncryptor encryptor = new DatabaseEncryptor(keyRing.current(), getEnvelopeFormat());
+        return data.stream()
+                .map(value -> decryptor.isStale(value) ? encryptor.encrypt(decryptor.decrypt(value)) : value)
+                .collect(Collectors.toList());
+    }
+
+    private static DatabaseDecryptor databaseDecryptor() {
+        return new DatabaseDecryptor(getCtDatabaseEncryptionKeyRing(), DECRYPTION_CACHE.get());
+    }
+
+    /**
+     * Gets the cache of the values decrypted by decryptFromDatabaseStorage, to read its statistics
+     *
+     * @return the cache or null if decrypted values are not cached
+     */
+    public static DecryptedValueCache getDecryptionCache() {
+        return DECRYPTION_CACHE.get();
+    }
+
+    /**
+     * Changes the cache of the values decrypted by decryptFromDatabaseStorage.
+     * By default, the cache is configured by the environment (see {@link DecryptedValueCache}).
+     *
+     * @param cache the new cache or null to disable caching
+     */
+    public static void setDecryptionCache(DecryptedValueCache cache) {
+        DECRYPTION_CACHE.set(cache);
     }
 
     /**
@@ -198,60 +397,178 @@ public class CryptoUtil {
      * @return the HMAC value as a base64-encoded string
      */
     public static String computeHmacForDatabaseStorage(String input) {
-        try {
-            SecretKey dbHmacKey = getCtDatabaseHmacKey().key;
-            Mac sha512Hmac = Mac.getInstance(HMAC_SHA512);
-            sha512Hmac.init(dbHmacKey);
-            byte[] macData = sha512Hmac.doFinal(input.getBytes(StandardCharsets.UTF_8));
-            return Base64.getEncoder().encodeToString(macData);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            throw new CloudtrustRuntimeException("Error while computing HMAC for database storage", e);
+        KeyEntry dbHmacKey = getCtDatabaseHmacKeyRing().current();
+        byte[] macData = CryptoEngine.hmac(dbHmacKey.kid, dbHmacKey.key, input.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(macData);
+    }
+
+    /**
+     * Compute the HMACs of a given string with each key of the DB_HMAC_KEY environment variable, so that a value
+     * hashed before a key rotation can still be found with a single lookup.
+     *
+     * @param input the string to HMAC
+     * @return the HMAC values as base64-encoded strings, the one computed with the current key first
+     */
+    public static List<String> computeHmacsForDatabaseStorage(String input) {
+        List<KeyEntry> dbHmacKeys = getCtDatabaseHmacKeyRing().entries();
+        byte[] data = input.getBytes(StandardCharsets.UTF_8);
+        List<String> res = new ArrayList<>(dbHmacKeys.size());
+        for (KeyEntry dbHmacKey : dbHmacKeys) {
+            res.add(Base64.getEncoder().encodeToString(CryptoEngine.hmac(dbHmacKey.kid, dbHmacKey.key, data)));
         }
+        return res;
     }
 
-    private static KeyEntry getCtDatabaseEncryptionKey() {
-        try {
-            if (CURRENT_DB_ENCRYPTION_KEY == null) {
-                List<AesKeyEntry> keys = loadKeysFromEnvironment(DB_ENCRYPTION_KEY_ENV_VAR_NAME, aesKeysTypeRef);
-                if (keys.isEmpty()) {
-                    throw new IllegalStateException("Cannot find any appropriate key from environment variable " +
-                            DB_ENCRYPTION_KEY_ENV_VAR_NAME);
-                }
-                // sort list of keys according to indices (bigger to smaller, to have the latest first)
-                Collections.sort(keys);
-                CURRENT_DB_ENCRYPTION_KEY = keys.get(0);
-                HISTORY_DB_ENCRYPTION_KEY = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
+    /**
+     * Reload the keys from the key source. Each key ring already in use is replaced atomically: concurrent operations
+     * use either the previous or the new keys. If the new keys cannot be loaded, the previous ones are kept.
+     * The cache of decrypted values is cleared.
+     */
+    public static void reloadKeys() {
+        synchronized (KEY_SOURCE) {
+            reloadKeyRing(DB_ENCRYPTION_KEY_RING, DB_ENCRYPTION_KEY_ENV_VAR_NAME, aesKeysTypeRef);
+            reloadKeyRing(DB_HMAC_KEY_RING, DB_HMAC_KEY_ENV_VAR_NAME, hmacKeysTypeRef);
+            DecryptedValueCache cache = DECRYPTION_CACHE.get();
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Changes the source of the keys. Key rings already in use are reloaded from the new source; if they cannot be
+     * loaded, the previous source and keys are kept.
+     * By default, keys are read from the files of the directory configured by DB_KEYS_DIRECTORY (which is then
+     * watched) or from the environment.
+     *
+     * @param source the new key source
+     */
+    public static void setKeySource(KeySource source) {
+        synchronized (KEY_SOURCE) {
+            KeySource previous = KEY_SOURCE.getAndSet(source);
+            try {
+                reloadKeys();
+            } catch (RuntimeException e) {
+                KEY_SOURCE.set(previous);
+                throw e;
             }
-            return CURRENT_DB_ENCRYPTION_KEY;
-        } catch (Exception ex) {
-            throw new IllegalStateException("Cannot load the " + DB_ENCRYPTION_KEY_ENV_VAR_NAME, ex);
         }
     }
 
-    private static KeyEntry getCtDatabaseHmacKey() {
+    /**
+     * Uses the given file key source and reloads the keys each time its files change
+     *
+     * @param source   the file key source
+     * @param interval maximum delay before a change is detected
+     * @return the started watcher, to be closed when the keys should not be watched anymore
+     */
+    public static KeySourceWatcher watchKeySource(FileKeySource source, Duration interval) {
+        setKeySource(source);
+        return new KeySourceWatcher(source, KEY_NAMES, interval, CryptoUtil::reloadKeys).start();
+    }
+
+    private static KeySource getKeySource() {
+        KeySource source = KEY_SOURCE.get();
+        if (source == null) {
+            // not synchronized: key rings are loaded while holding their own lock
+            KeySource defaultSource = createDefaultKeySource();
+            if (KEY_SOURCE.compareAndSet(null, defaultSource) && defaultSource instanceof FileKeySource) {
+                new KeySourceWatcher((FileKeySource) defaultSource, KEY_NAMES, getWatchInterval(), CryptoUtil::reloadKeys).start();
+            }
+            source = KEY_SOURCE.get();
+        }
+        return source;
+    }
+
+    static Duration getWatchInterval() {
+        String interval = System.getenv(DB_KEYS_WATCH_INTERVAL_ENV_VAR_NAME);
+        if (interval == null || interval.isEmpty()) {
+            return DEFAULT_WATCH_INTERVAL;
+        }
+        long seconds;
         try {
-            if (CURRENT_DB_HMAC_KEY == null) {
-                List<HmacKeyEntry> keys = loadKeysFromEnvironment(DB_HMAC_KEY_ENV_VAR_NAME, hmacKeysTypeRef);
-                if (keys.isEmpty()) {
-                    throw new IllegalStateException("Cannot find an appropriate key from environment variable " +
-                            DB_HMAC_KEY_ENV_VAR_NAME);
-                }
-                Collections.sort(keys);
-                CURRENT_DB_HMAC_KEY = keys.get(0); // take the most recent key (top-most one)
-                HISTORY_DB_HMAC_KEY = keys.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey));
+            seconds = Long.parseLong(interval.trim());
+        } catch (NumberFormatException e) {
+            seconds = 0;
+        }
+        if (seconds <= 0) {
+            LOG.log(Level.WARNING, "Invalid {0} ({1}), using {2}s", new Object[]{DB_KEYS_WATCH_INTERVAL_ENV_VAR_NAME, interval,
+                    DEFAULT_WATCH_INTERVAL.getSeconds()});
+            return DEFAULT_WATCH_INTERVAL;
+        }
+        return Duration.ofSeconds(seconds);
+    }
+
+    private static KeySource createDefaultKeySource() {
+        String directory = System.getenv(DB_KEYS_DIRECTORY_ENV_VAR_NAME);
+        if (directory == null || directory.isEmpty()) {
+            return new EnvironmentKeySource();
+        }
+        return new FileKeySource(Paths.get(directory), new EnvironmentKeySource());
+    }
+
+    private static EnvelopeFormat getEnvelopeFormat() {
+        EnvelopeFormat format = ENVELOPE_FORMAT.get();
+        if (format == null) {
+            format = EnvelopeFormat.fromEnvironment();
+            ENVELOPE_FORMAT.set(format);
+        }
+        return format;
+    }
+
+    private static KeyRing getCtDatabaseEncryptionKeyRing() {
+        KeyRing keyRing = DB_ENCRYPTION_KEY_RING.get();
+        return keyRing != null ? keyRing : initKeyRing(DB_ENCRYPTION_KEY_RING, DB_ENCRYPTION_KEY_ENV_VAR_NAME, aesKeysTypeRef);
+    }
+
+    private static KeyRing getCtDatabaseHmacKeyRing() {
+        KeyRing keyRing = DB_HMAC_KEY_RING.get();
+        return keyRing != null ? keyRing : initKeyRing(DB_HMAC_KEY_RING, DB_HMAC_KEY_ENV_VAR_NAME, hmacKeysTypeRef);
+    }
+
+    private static KeyRing initKeyRing(AtomicReference<KeyRing> holder, String envVariableName, TypeReference<? extends List<? extends KeyEntry>> type) {
+        // only the first access loads the keys, concurrent first accesses wait for it
+        synchronized (holder) {
+            KeyRing keyRing = holder.get();
+            if (keyRing == null) {
+                keyRing = loadKeyRing(envVariableName, type);
+                holder.set(keyRing);
             }
-            return CURRENT_DB_HMAC_KEY;
+            return keyRing;
+        }
+    }
+
+    private static void reloadKeyRing(AtomicReference<KeyRing> holder, String envVariableName, TypeReference<? extends List<? extends KeyEntry>> type) {
+        synchronized (holder) {
+            if (holder.get() != null) {
+                holder.set(loadKeyRing(envVariableName, type));
+            }
+        }
+    }
+
+    private static KeyRing loadKeyRing(String envVariableName, TypeReference<? extends List<? extends KeyEntry>> type) {
+        try {
+            return KeyRing.of(loadKeysFromEnvironment(envVariableName, type));
         } catch (Exception ex) {
-            throw new IllegalStateException("Cannot load the " + DB_HMAC_KEY_ENV_VAR_NAME, ex);
+            throw new IllegalStateException("Cannot load the " + envVariableName, ex);
         }
     }
 
-    private static <T> T loadKeysFromEnvironment(String envVariableName, TypeReference<T> type) throws JsonProcessingException {
-        String keys = System.getenv(envVariableName); // each key is encoded in Base64
+    private static <T> T loadKeysFromEnvironment(String envVariableName, TypeReference<T> type) throws IOException {
+        KeySource source = getKeySource();
+        String keys = source.getKeys(envVariableName); // each key is encoded in Base64
         if (keys == null) {
-            throw new IllegalStateException("Cannot load the environment variable" + envVariableName);
+            throw new IllegalStateException("Cannot load " + envVariableName + " from " + source);
+        }
+        return JsonUtil.readValue(keys, type);
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, n);
         }
-        return new ObjectMapper().readValue(keys, type);
     }
 
     static class EncryptedData {
@@ -269,9 +586,10 @@ public class CryptoUtil {
 
     // package-protected method for clearing the keys, for test purpose
     static void clearKeys() {
-        CURRENT_DB_HMAC_KEY = null;
-        HISTORY_DB_HMAC_KEY = null;
-        CURRENT_DB_ENCRYPTION_KEY = null;
-        HISTORY_DB_ENCRYPTION_KEY = null;
+        DB_HMAC_KEY_RING.set(null);
+        DB_ENCRYPTION_KEY_RING.set(null);
+        ENVELOPE_FORMAT.set(null);
+        KEY_SOURCE.set(null);
+        DECRYPTION_CACHE.set(null);
     }
 }
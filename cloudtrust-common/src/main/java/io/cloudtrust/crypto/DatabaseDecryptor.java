@@ -0,0 +1,115 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.cloudtrust.json.JsonUtil;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Decrypts values read from the database with a given set of keys. An instance holds everything which does not
+ * depend on the value, so that batches only pay once for the key lookup and the deserializer setup.
+ * Instances are immutable and can be shared between threads.
+ */
+class DatabaseDecryptor {
+    private final KeyRing keyRing;
+    private final DecryptedValueCache cache;
+    private final ObjectReader jsonReader;
+
+    DatabaseDecryptor(KeyRing keyRing) {
+        this(keyRing, null);
+    }
+
+    DatabaseDecryptor(KeyRing keyRing, DecryptedValueCache cache) {
+        this.keyRing = keyRing;
+        this.cache = cache;
+        this.jsonReader = JsonUtil.readerFor(CryptoUtil.EncryptedData.class);
+    }
+
+    byte[] decrypt(String data) {
+        if (cache != null && data != null) {
+            return cache.get(data, this::decryptValue);
+        }
+        return decryptValue(data);
+    }
+
+    private byte[] decryptValue(String data) {
+        CompactEnvelope envelope = CompactEnvelope.parse(data);
+        if (envelope != null) {
+            return decryptPayload(envelope.kid, envelope.buffer, envelope.payloadOffset, envelope.payloadLength());
+        }
+        try {
+            // parse json structure
+            CryptoUtil.EncryptedData encData = jsonReader.readValue(data);
+            if (encData.val == null) {
+                return null;
+            }
+            byte[] payload = Base64.getDecoder().decode(encData.val);
+            return decryptPayload(encData.kid, payload, 0, payload.length);
+        } catch (IOException ex) {
+            // legacy: support for missing structure
+            // try to decrypt with the current key
+            try {
+                return CryptoUtil.gcmDecryptData(keyRing.current().key, data);
+            } catch (BadPaddingException | IllegalBlockSizeException | RuntimeException exc) {
+                // if decryption fails, assumes that the data is in clear
+                return data.getBytes(StandardCharsets.UTF_8);
+            }
+        }
+    }
+
+    /**
+     * Gets the identifier of the key used to encrypt a value
+     *
+     * @param data value read from the database
+     * @return the key identifier or null if the value is stored in the legacy format (or in clear)
+     */
+    String kidOf(String data) {
+        CompactEnvelope envelope = CompactEnvelope.parse(data);
+        if (envelope != null) {
+            return envelope.kid;
+        }
+        if (data == null || !data.startsWith("{")) {
+            return null;
+        }
+        try {
+            CryptoUtil.EncryptedData encData = jsonReader.readValue(data);
+            return encData.kid;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Tells whether a value is encrypted with another key than the current one
+     *
+     * @param data value read from the database
+     * @return true if the value has a key identifier which is not the current one
+     */
+    boolean isStale(String data) {
+        String kid = kidOf(data);
+        return kid != null && !kid.equals(keyRing.current().kid);
+    }
+
+    private byte[] decryptPayload(String kid, byte[] buffer, int offset, int length) {
+        SecretKey dbEncryptionKey = keyRing.get(kid);
+        if (dbEncryptionKey == null) {
+            // key cannot be found
+            throw new IllegalStateException("Required key " + kid + " cannot be found");
+        }
+        if (AesKeyEntry.isEmptyKey(dbEncryptionKey)) {
+            // empty key, no decryption necessary
+            return Arrays.copyOfRange(buffer, offset, offset + length);
+        }
+        try {
+            return CryptoEngine.gcmDecrypt(dbEncryptionKey, buffer, offset, length);
+        } catch (BadPaddingException | IllegalBlockSizeException ex) {
+            throw new IllegalArgumentException("Unexpected error while decrypting data from database storage", ex);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.cloudtrust.crypto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import java.util.Base64;
+
+/**
+ * Encrypts values for the database with a given key and output format. An instance holds everything which does not
+ * depend on the value, so that batches only pay once for the key lookup and the serializer setup.
+ * Instances are immutable and can be shared between threads.
+ */
+class DatabaseEncryptor {
+    private final KeyEntry keyEntry;
+    private final EnvelopeFormat format;
+    private final ObjectWriter jsonWriter;
+
+    DatabaseEncryptor(KeyEntry keyEntry, EnvelopeFormat format) {
+        this.keyEntry = keyEntry;
+        this.format = format;
+        this.jsonWriter = format == EnvelopeFormat.JSON ? JsonUtil.writerFor(CryptoUtil.EncryptedData.class) : null;
+    }
+
+    String encrypt(byte[] data) {
+        try {
+            if (format == EnvelopeFormat.COMPACT) {
+                return encryptToCompactEnvelope(data);
+            }
+            String encData = isEmptyKey() ? Base64.getEncoder().encodeToString(data) : CryptoUtil.gcmEncryptData(keyEntry.key, data);
+            return jsonWriter.writeValueAsString(new CryptoUtil.EncryptedData(keyEntry.kid, encData));
+        } catch (BadPaddingException | IllegalBlockSizeException | JsonProcessingException ex) {
+            throw new IllegalArgumentException("Unexpected error while encrypting data for database storage", ex);
+        }
+    }
+
+    private String encryptToCompactEnvelope(byte[] data) throws BadPaddingException, IllegalBlockSizeException {
+        int headerLength = CompactEnvelope.headerLength(keyEntry.kid);
+        byte[] buffer;
+        if (isEmptyKey()) {
+            buffer = CompactEnvelope.allocate(keyEntry.kid, data.length);
+            System.arraycopy(data, 0, buffer, headerLength, data.length);
+        } else {
+            buffer = CompactEnvelope.allocate(keyEntry.kid, CryptoEngine.gcmOutputLength(data.length));
+            CryptoEngine.gcmEncrypt(keyEntry.key, data, buffer, headerLength);
+        }
+        return CompactEnvelope.encode(buffer);
+    }
+
+    private boolean isEmptyKey() {
+        return AesKeyEntry.isEmptyKey(keyEntry.key);
+    }
+}
@@ -0,0 +1,207 @@
+package io.cloudtrust.crypto;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of values decrypted from the database, for attributes decrypted on each request.
+ * Entries are indexed by the SHA-256 digest of the encrypted value and expire after a fixed time. Reads take no lock:
+ * they only record the access order of the entry. When the cache is full, a single writer evicts the least recently
+ * used entries, a tenth of the cache at once so that the cost of sorting the entries is shared by the next insertions;
+ * the cache may exceed its size while a thread evicts. Decrypted values are only softly referenced so
+ * that the garbage collector drops them under memory pressure. The cache is cleared each time the keys are reloaded.
+ * Keeping decrypted values in memory is a trade-off: the cache is disabled unless configured (see {@link #fromEnvironment()}).
+ */
+public final class DecryptedValueCache {
+    private static final Logger LOG = Logger.getLogger(DecryptedValueCache.class.getName());
+
+    static final String SIZE_ENV_VAR_NAME = "DB_DECRYPTION_CACHE_SIZE";
+    static final String TTL_ENV_VAR_NAME = "DB_DECRYPTION_CACHE_TTL";
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(DecryptedValueCache::newDigest);
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final int evictionBatchSize;
+    private final Map<ByteBuffer, CachedValue> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong accesses = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttl     time to live of an entry
+     */
+    public DecryptedValueCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::nanoTime);
+    }
+
+    DecryptedValueCache(int maxSize, Duration ttl, LongSupplier clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.evictionBatchSize = Math.max(1, maxSize / 10);
+    }
+
+    /**
+     * Creates the cache configured by the DB_DECRYPTION_CACHE_SIZE (maximum number of entries) and
+     * DB_DECRYPTION_CACHE_TTL (time to live in seconds, 300 by default) environment variables
+     *
+     * @return the cache or null if DB_DECRYPTION_CACHE_SIZE is not set, is 0 or if the configuration is invalid
+     */
+    static DecryptedValueCache fromEnvironment() {
+        String size = System.getenv(SIZE_ENV_VAR_NAME);
+        String ttl = System.getenv(TTL_ENV_VAR_NAME);
+        try {
+            if (size == null || size.isEmpty() || Integer.parseInt(size.trim()) <= 0) {
+                return null;
+            }
+            Duration timeToLive = ttl == null || ttl.isEmpty() ? DEFAULT_TTL : Duration.ofSeconds(Long.parseLong(ttl.trim()));
+            if (timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new NumberFormatException("TTL must be positive");
+            }
+            return new DecryptedValueCache(Integer.parseInt(size.trim()), timeToLive);
+        } catch (NumberFormatException e) {
+            // a configuration error must not prevent the use of the database crypto: only the cache is disabled
+            LOG.log(Level.WARNING, "Invalid " + SIZE_ENV_VAR_NAME + " (" + size + ") or " + TTL_ENV_VAR_NAME + " (" + ttl
+                    + "), decryption cache disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the decrypted value of an encrypted value, decrypting it if it is not in the cache
+     *
+     * @param data      encrypted value
+     * @param decryptor decrypts the value on cache miss
+     * @return a copy of the decrypted value
+     */
+    byte[] get(String data, Function<String, byte[]> decryptor) {
+        ByteBuffer key = ByteBuffer.wrap(SHA_256.get().digest(data.getBytes(StandardCharsets.UTF_8)));
+        long now = clock.getAsLong();
+        long currentGeneration = generation.get();
+        CachedValue entry = entries.get(key);
+        if (entry != null) {
+            byte[] value = entry.value.get();
+            // entries put concurrently with the last clear are stale
+            if (value != null && now - entry.expiration < 0 && entry.generation == currentGeneration) {
+                entry.lastAccess = accesses.incrementAndGet();
+                hits.incrementAndGet();
+                return value.clone();
+            }
+            entries.remove(key, entry);
+        }
+        misses.incrementAndGet();
+        byte[] value = decryptor.apply(data);
+        // values decrypted with keys loaded before the last clear are not cached
+        if (value != null && currentGeneration == generation.get()) {
+            entries.put(key, new CachedValue(value.clone(), now + ttlNanos, currentGeneration, accesses.incrementAndGet()));
+            if (entries.size() > maxSize) {
+                evict();
+            }
+        }
+        return value;
+    }
+
+    private void evict() {
+        // a thread which does not get the lock leaves its entry to the thread holding it, which checks the size again
+        // once the lock is released
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                int excess = entries.size() - maxSize;
+                if (excess > 0) {
+                    evictEldest(excess - 1 + evictionBatchSize);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        } while (entries.size() > maxSize);
+    }
+
+    private void evictEldest(int count) {
+        // access orders are unique: sorting a snapshot of them keeps the order stable while readers update it
+        TreeMap<Long, Map.Entry<ByteBuffer, CachedValue>> candidates = new TreeMap<>();
+        entries.entrySet().forEach(e -> candidates.put(e.getValue().lastAccess, e));
+        for (int i = 0; i < count && !candidates.isEmpty(); i++) {
+            Map.Entry<ByteBuffer, CachedValue> eldest = candidates.pollFirstEntry().getValue();
+            if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "DecryptedValueCache{size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get() + "}";
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot create a SHA-256 digest", e);
+        }
+    }
+
+    private static class CachedValue {
+        private final SoftReference<byte[]> value;
+        private final long expiration;
+        private final long generation;
+        private volatile long lastAccess;
+
+        private CachedValue(byte[] value, long expiration, long generation, long lastAccess) {
+            this.value = new SoftReference<>(value);
+            this.expiration = expiration;
+            this.generation = generation;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
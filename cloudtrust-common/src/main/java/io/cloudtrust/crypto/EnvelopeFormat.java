@@ -0,0 +1,43 @@
+package io.cloudtrust.crypto;
+
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Format of the values produced by {@link CryptoUtil#encryptForDatabaseStorage(byte[])}.
+ * Decryption always accepts both formats, whatever the configured one.
+ */
+public enum EnvelopeFormat {
+    /**
+     * JSON structure {"kid": ..., "val": ...} where val is the base64-encoded IV and ciphered data
+     */
+    JSON,
+    /**
+     * Versioned binary envelope (magic byte, version, kid, IV and ciphered data) encoded with a single base64 pass
+     */
+    COMPACT;
+
+    static final String ENV_VAR_NAME = "DB_ENCRYPTION_ENVELOPE";
+
+    /**
+     * Gets the format configured by the DB_ENCRYPTION_ENVELOPE environment variable. JSON is the default as it can be
+     * read by any version of this library: COMPACT should be enabled once all the nodes are able to read it.
+     * {@link CryptoUtil} resolves it once, with its keys.
+     *
+     * @return the configured format, JSON if the variable is not set or is invalid
+     */
+    public static EnvelopeFormat fromEnvironment() {
+        String value = System.getenv(ENV_VAR_NAME);
+        if (value == null || value.isEmpty()) {
+            return JSON;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Logger.getLogger(EnvelopeFormat.class.getName()).log(Level.WARNING, "Invalid {0} ({1}), using {2}",
+                    new Object[]{ENV_VAR_NAME, value, JSON});
+            return JSON;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.cloudtrust.crypto;
+
+/**
+ * Reads the keys from the environment variables named after the key sets
+ */
+public class EnvironmentKeySource implements KeySource {
+    @Override
+    public String getKeys(String name) {
+        return System.getenv(name);
+    }
+
+    @Override
+    public String toString() {
+        return "environment";
+    }
+}
@@ -0,0 +1,42 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the keys from files named after the key sets (DB_ENCRYPTION_KEY, DB_HMAC_KEY) in a given directory, as done
+ * when mounting a Kubernetes secret as a volume. Key sets without file are read from a fallback source, if any.
+ */
+public class FileKeySource implements KeySource {
+    private final Path directory;
+    private final KeySource fallback;
+
+    public FileKeySource(Path directory) {
+        this(directory, null);
+    }
+
+    public FileKeySource(Path directory, KeySource fallback) {
+        this.directory = directory;
+        this.fallback = fallback;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String getKeys(String name) throws IOException {
+        Path file = directory.resolve(name);
+        if (Files.isReadable(file)) {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        }
+        return fallback != null ? fallback.getKeys(name) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "directory " + directory;
+    }
+}
@@ -0,0 +1,134 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Input stream decrypting data written by {@link GcmEncryptingOutputStream}. Chunks are authenticated before any of
+ * their data is returned: an IOException is thrown if the stream was altered or truncated.
+ */
+public final class GcmDecryptingInputStream extends InputStream {
+    private final InputStream in;
+    private final SecretKey key;
+    private final StreamEnvelope envelope;
+    private final byte[] chunk;
+    private final byte[] buffer;
+    private final byte[] iv = new byte[CryptoEngine.IV_SIZE];
+    private int chunkLength;
+    private int position;
+    private int limit;
+    private int index;
+    private boolean lastChunkRead;
+
+    /**
+     * @param in          encrypted stream
+     * @param keyResolver gets the key matching the key identifier of the stream header
+     * @throws IOException if the stream header cannot be read
+     */
+    GcmDecryptingInputStream(InputStream in, Function<String, SecretKey> keyResolver) throws IOException {
+        this.in = in;
+        this.envelope = StreamEnvelope.read(in);
+        SecretKey secretKey = Objects.requireNonNull(keyResolver.apply(envelope.kid), "key");
+        this.key = AesKeyEntry.isEmptyKey(secretKey) ? null : secretKey;
+        // one more byte than a chunk is read to know whether the current chunk is the last one
+        this.chunk = key == null ? null : new byte[envelope.chunkSize + StreamEnvelope.TAG_SIZE + 1];
+        this.buffer = key == null ? null : new byte[envelope.chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (key == null) {
+            return in.read(b, off, len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit && !readChunk()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long remaining = n;
+        byte[] skipped = new byte[(int) Math.min(8192, Math.max(n, 0))];
+        while (remaining > 0) {
+            int read = read(skipped, 0, (int) Math.min(skipped.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return key == null ? in.available() : limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readChunk() throws IOException {
+        while (!lastChunkRead) {
+            int full = chunk.length - 1;
+            while (chunkLength < chunk.length) {
+                int n = in.read(chunk, chunkLength, chunk.length - chunkLength);
+                if (n < 0) {
+                    break;
+                }
+                chunkLength += n;
+            }
+            boolean last = chunkLength < chunk.length;
+            int length = last ? chunkLength : full;
+            if (length < StreamEnvelope.TAG_SIZE || index < 0) {
+                throw new IOException("Truncated encrypted stream");
+            }
+            decryptChunk(length, last);
+            if (last) {
+                lastChunkRead = true;
+                chunkLength = 0;
+            } else {
+                chunk[0] = chunk[full];
+                chunkLength = 1;
+            }
+            if (limit > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void decryptChunk(int length, boolean last) throws IOException {
+        envelope.chunkIv(iv, index++, last);
+        try {
+            Cipher cipher = CryptoEngine.gcmCipher(Cipher.DECRYPT_MODE, key, iv, 0);
+            cipher.updateAAD(envelope.header);
+            limit = cipher.doFinal(chunk, 0, length, buffer, 0);
+            position = 0;
+        } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            throw new IOException("Encrypted stream is corrupted or truncated", e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Output stream encrypting the written data with AES/GCM in fixed-size chunks (see {@link StreamEnvelope}), so that
+ * data of any size is encrypted with a constant amount of memory.
+ * The stream must be finished or closed, otherwise the last chunk is missing and the data cannot be decrypted.
+ */
+public final class GcmEncryptingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final SecretKey key;
+    private final StreamEnvelope envelope;
+    private final byte[] buffer;
+    private final byte[] chunk;
+    private final byte[] iv = new byte[CryptoEngine.IV_SIZE];
+    private int count;
+    private int index;
+    private boolean finished;
+
+    /**
+     * @param out       underlying stream
+     * @param key       AES key, or an empty key (see {@link AesKeyEntry}) to write the data in clear
+     * @param kid       key identifier written in the header, may be null
+     * @param chunkSize size of the data in each chunk
+     * @throws IOException if the header cannot be written
+     */
+    GcmEncryptingOutputStream(OutputStream out, SecretKey key, String kid, int chunkSize) throws IOException {
+        this.out = out;
+        this.key = AesKeyEntry.isEmptyKey(Objects.requireNonNull(key, "key")) ? null : key;
+        this.envelope = StreamEnvelope.create(kid, chunkSize);
+        this.buffer = this.key == null ? null : new byte[chunkSize];
+        this.chunk = this.key == null ? null : new byte[chunkSize + StreamEnvelope.TAG_SIZE];
+        out.write(envelope.header);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        if (key == null) {
+            out.write(b, off, len);
+            return;
+        }
+        while (len > 0) {
+            // a full chunk is only written once more data comes, as the last chunk is flagged differently
+            if (count == buffer.length) {
+                writeChunk(false);
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Only flushes the underlying stream: pending data is written when a chunk is complete or when the stream is finished
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the last chunk without closing the underlying stream
+     *
+     * @throws IOException if the last chunk cannot be written
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            if (key != null) {
+                writeChunk(true);
+            }
+            finished = true;
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk(boolean last) throws IOException {
+        if (index < 0) {
+            throw new IOException("Too many chunks in encrypted stream");
+        }
+        envelope.chunkIv(iv, index++, last);
+        try {
+            Cipher cipher = CryptoEngine.gcmCipher(Cipher.ENCRYPT_MODE, key, iv, 0);
+            cipher.updateAAD(envelope.header);
+            int length = cipher.doFinal(buffer, 0, count, chunk, 0);
+            out.write(chunk, 0, length);
+            count = 0;
+        } catch (BadPaddingException | IllegalBlockSizeException | ShortBufferException e) {
+            throw new IOException("Cannot encrypt stream chunk", e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.cloudtrust.crypto;
+
+import javax.crypto.SecretKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable snapshot of the keys of a given type (database encryption or HMAC).
+ * A key ring is fully built before being published so that it can be read without any lock.
+ */
+final class KeyRing {
+    private final List<KeyEntry> entries;
+    private final Map<String, SecretKey> keys;
+
+    private KeyRing(List<KeyEntry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.keys = Collections.unmodifiableMap(entries.stream().collect(Collectors.toMap(KeyEntry::getKid, KeyEntry::getKey)));
+    }
+
+    /**
+     * Creates a key ring
+     *
+     * @param entries keys, in any order
+     * @return the key ring
+     * @throws IllegalStateException if no key is provided
+     */
+    static KeyRing of(List<? extends KeyEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            throw new IllegalStateException("Cannot find any appropriate key");
+        }
+        List<KeyEntry> sorted = new ArrayList<>(entries);
+        // sort list of keys according to indices (bigger to smaller, to have the latest first)
+        Collections.sort(sorted);
+        return new KeyRing(sorted);
+    }
+
+    /**
+     * @return the most recent key
+     */
+    KeyEntry current() {
+        return entries.get(0);
+    }
+
+    /**
+     * @return all the keys, the most recent one first
+     */
+    List<KeyEntry> entries() {
+        return entries;
+    }
+
+    /**
+     * @param kid key identifier
+     * @return the key or null if the key ring does not contain this key identifier
+     */
+    SecretKey get(String kid) {
+        return keys.get(kid);
+    }
+}
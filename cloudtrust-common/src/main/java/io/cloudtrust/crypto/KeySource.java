@@ -0,0 +1,18 @@
+package io.cloudtrust.crypto;
+
+import java.io.IOException;
+
+/**
+ * Source of the keys used by {@link CryptoUtil}. Keys are provided as a JSON array of {"kid": ..., "value": ...}
+ * objects where each value is base64-encoded.
+ */
+public interface KeySource {
+    /**
+     * Gets the keys of a given type
+     *
+     * @param name name of the key set (DB_ENCRYPTION_KEY or DB_HMAC_KEY)
+     * @return the JSON representation of the keys or null if this source does not define them
+     * @throws IOException if the keys cannot be read
+     */
+    String getKeys(String name) throws IOException;
+}
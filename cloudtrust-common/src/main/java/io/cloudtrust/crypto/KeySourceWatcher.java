@@ -0,0 +1,126 @@
+package io.cloudtrust.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the directory of a {@link FileKeySource} and triggers a callback when the content of a key set changes.
+ * File system events wake the watcher up immediately; the content is also checked at a fixed interval as some mounts
+ * (network file systems, Kubernetes secrets updated through symbolic links) do not reliably emit events.
+ * The watcher runs in a daemon thread.
+ */
+public class KeySourceWatcher implements Closeable {
+    private static final Logger LOG = Logger.getLogger(KeySourceWatcher.class.getName());
+
+    private final FileKeySource source;
+    private final List<String> names;
+    private final Duration pollInterval;
+    private final Runnable onChange;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile WatchService watchService;
+    private List<String> lastContent;
+
+    /**
+     * @param source       watched key source
+     * @param names        names of the watched key sets
+     * @param pollInterval maximum delay between two checks of the content
+     * @param onChange     callback invoked when the content of the key sets changed
+     */
+    public KeySourceWatcher(FileKeySource source, Collection<String> names, Duration pollInterval, Runnable onChange) {
+        this.source = source;
+        this.names = new ArrayList<>(names);
+        this.pollInterval = pollInterval;
+        this.onChange = onChange;
+        this.thread = new Thread(this::watch, "ct-key-source-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Reads the current content of the key sets and starts watching
+     *
+     * @return this watcher
+     */
+    public KeySourceWatcher start() {
+        lastContent = readContent();
+        try {
+            WatchService service = source.getDirectory().getFileSystem().newWatchService();
+            source.getDirectory().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            watchService = service;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.log(Level.WARNING, "Cannot watch " + source.getDirectory() + ", falling back to polling", e);
+        }
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch() {
+        while (!closed) {
+            try {
+                waitForEvent();
+                checkContent();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to reload keys from " + source, e);
+            }
+        }
+    }
+
+    private void waitForEvent() throws InterruptedException {
+        if (watchService == null) {
+            Thread.sleep(pollInterval.toMillis());
+            return;
+        }
+        WatchKey key = watchService.poll(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        if (key != null) {
+            key.pollEvents();
+            key.reset();
+        }
+    }
+
+    private void checkContent() {
+        List<String> content = readContent();
+        if (content != null && !content.equals(lastContent)) {
+            // callback failures are retried at the next check
+            onChange.run();
+            lastContent = content;
+        }
+    }
+
+    private List<String> readContent() {
+        List<String> content = new ArrayList<>(names.size());
+        try {
+            for (String name : names) {
+                content.add(source.getKeys(name));
+            }
+            return content;
+        } catch (IOException e) {
+            // files may be partially written: check again later
+            LOG.log(Level.FINE, "Cannot read keys from " + source, e);
+            return null;
+        }
+    }
+}
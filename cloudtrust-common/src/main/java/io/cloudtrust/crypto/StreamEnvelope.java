@@ -0,0 +1,109 @@
+package io.cloudtrust.crypto;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Chunked envelope for streamed data:
+ * <pre>
+ * MAGIC (1 byte) | VERSION (1 byte) | kid length (1 byte) | kid (ASCII) | chunk size (4 bytes) | nonce prefix (7 bytes)
+ * chunk 0 | chunk 1 | ... | last chunk
+ * </pre>
+ * Each chunk holds up to chunk size bytes of data ciphered with AES/GCM, followed by its tag. The IV of a chunk is
+ * the nonce prefix, the chunk index (4 bytes) and a last chunk flag (1 byte), and the header is authenticated with
+ * every chunk: chunks cannot be reordered, truncated or moved to another stream without failing the decryption.
+ * When the key is empty, the data follows the header without any chunking.
+ */
+final class StreamEnvelope {
+    static final byte MAGIC = (byte) 0xC8;
+    static final byte VERSION = 0x01;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int TAG_SIZE = CryptoEngine.GCM_TAG_LENGTH / 8;
+    private static final int NONCE_PREFIX_SIZE = CryptoEngine.IV_SIZE - 5;
+    private static final int MAX_KID_LENGTH = 255;
+
+    final String kid;
+    final int chunkSize;
+    final byte[] header;
+    private final int noncePrefixOffset;
+
+    private StreamEnvelope(String kid, int chunkSize, byte[] header) {
+        this.kid = kid;
+        this.chunkSize = chunkSize;
+        this.header = header;
+        this.noncePrefixOffset = header.length - NONCE_PREFIX_SIZE;
+    }
+
+    /**
+     * Creates the envelope of a new stream, with a random nonce prefix
+     *
+     * @param kid       key identifier, may be null
+     * @param chunkSize size of the data in each chunk
+     * @return the envelope
+     */
+    static StreamEnvelope create(String kid, int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        byte[] kidBytes = kid == null ? new byte[0] : kid.getBytes(StandardCharsets.US_ASCII);
+        if (kidBytes.length > MAX_KID_LENGTH) {
+            throw new IllegalArgumentException("Key identifier is too long: " + kid);
+        }
+        ByteBuffer header = ByteBuffer.allocate(3 + kidBytes.length + 4 + NONCE_PREFIX_SIZE);
+        header.put(MAGIC).put(VERSION).put((byte) kidBytes.length).put(kidBytes).putInt(chunkSize);
+        header.put(CryptoEngine.newIv(), 0, NONCE_PREFIX_SIZE);
+        return new StreamEnvelope(kid, chunkSize, header.array());
+    }
+
+    /**
+     * Reads the envelope of a stream
+     *
+     * @param input stream positioned on the envelope header
+     * @return the envelope
+     * @throws IOException if the stream does not start with a valid header
+     */
+    static StreamEnvelope read(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        try {
+            if (data.readByte() != MAGIC || data.readByte() != VERSION) {
+                throw new IOException("Not an encrypted stream");
+            }
+            byte[] kidBytes = new byte[data.readUnsignedByte()];
+            data.readFully(kidBytes);
+            int chunkSize = data.readInt();
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            data.readFully(noncePrefix);
+
+            ByteBuffer header = ByteBuffer.allocate(3 + kidBytes.length + 4 + NONCE_PREFIX_SIZE);
+            header.put(MAGIC).put(VERSION).put((byte) kidBytes.length).put(kidBytes).putInt(chunkSize).put(noncePrefix);
+            String kid = kidBytes.length == 0 ? null : new String(kidBytes, StandardCharsets.US_ASCII);
+            return new StreamEnvelope(kid, chunkSize, header.array());
+        } catch (EOFException e) {
+            throw new IOException("Truncated encrypted stream header", e);
+        }
+    }
+
+    /**
+     * Writes the IV of a given chunk
+     *
+     * @param iv    IV_SIZE bytes buffer
+     * @param index chunk index
+     * @param last  whether this is the last chunk of the stream
+     */
+    void chunkIv(byte[] iv, int index, boolean last) {
+        System.arraycopy(header, noncePrefixOffset, iv, 0, NONCE_PREFIX_SIZE);
+        iv[NONCE_PREFIX_SIZE] = (byte) (index >>> 24);
+        iv[NONCE_PREFIX_SIZE + 1] = (byte) (index >>> 16);
+        iv[NONCE_PREFIX_SIZE + 2] = (byte) (index >>> 8);
+        iv[NONCE_PREFIX_SIZE + 3] = (byte) index;
+        iv[NONCE_PREFIX_SIZE + 4] = (byte) (last ? 1 : 0);
+    }
+}
@@ -0,0 +1,101 @@
+package io.cloudtrust.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared JSON facility. Creating an ObjectMapper per call rebuilds all its serializer caches: this class holds a
+ * single mapper, never reconfigured, and caches an immutable ObjectReader/ObjectWriter per type. Readers and writers
+ * created for a type resolve their (de)serializer once and are thread-safe.
+ */
+public final class JsonUtil {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectWriter WRITER = MAPPER.writer();
+    private static final ConcurrentMap<Type, ObjectReader> READERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Type, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
+    //Avoid class instantiation
+    private JsonUtil() {
+    }
+
+    /**
+     * @param type type of the read values
+     * @return the shared reader for the given type
+     */
+    public static ObjectReader readerFor(Class<?> type) {
+        return READERS.computeIfAbsent(type, t -> MAPPER.readerFor(type));
+    }
+
+    /**
+     * @param type type of the read values
+     * @return the shared reader for the given type
+     */
+    public static ObjectReader readerFor(TypeReference<?> type) {
+        return READERS.computeIfAbsent(type.getType(), t -> MAPPER.readerFor(type));
+    }
+
+    /**
+     * @param type declared type of the written values
+     * @return the shared writer for the given type
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        return WRITERS.computeIfAbsent(type, t -> MAPPER.writerFor(type));
+    }
+
+    /**
+     * Parses a JSON value
+     *
+     * @param json JSON string
+     * @param type type of the value
+     * @param <T>  type of the value
+     * @return the parsed value
+     * @throws IOException if the JSON string cannot be parsed
+     */
+    public static <T> T readValue(String json, Class<T> type) throws IOException {
+        return readerFor(type).readValue(json);
+    }
+
+    /**
+     * Parses a JSON value
+     *
+     * @param json JSON string
+     * @param type type of the value
+     * @param <T>  type of the value
+     * @return the parsed value
+     * @throws IOException if the JSON string cannot be parsed
+     */
+    public static <T> T readValue(String json, TypeReference<T> type) throws IOException {
+        return readerFor(type).readValue(json);
+    }
+
+    /**
+     * Creates a streaming parser, for hot paths which only need a few fields of a JSON value
+     *
+     * @param json JSON string
+     * @return the parser, to be closed
+     * @throws IOException if the parser cannot be created
+     */
+    public static JsonParser createParser(String json) throws IOException {
+        return MAPPER.getFactory().createParser(json);
+    }
+
+    /**
+     * Serializes a value according to its runtime type
+     *
+     * @param value value to serialize
+     * @return the JSON string
+     * @throws JsonProcessingException if the value cannot be serialized
+     */
+    public static String toJson(Object value) throws JsonProcessingException {
+        return WRITER.writeValueAsString(value);
+    }
+}
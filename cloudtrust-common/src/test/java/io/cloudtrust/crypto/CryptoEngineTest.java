@@ -0,0 +1,113 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class CryptoEngineTest {
+    @Test
+    void testEncryptDecrypt() throws Exception {
+        SecretKey key = createAesKey();
+        byte[] plainText = "This is a test string to encrypt and decrypt!".getBytes(StandardCharsets.UTF_8);
+
+        byte[] first = CryptoEngine.gcmEncrypt(key, plainText);
+        byte[] second = CryptoEngine.gcmEncrypt(key, plainText);
+
+        assertThat(first, not(equalTo(second)));
+        assertThat(CryptoEngine.gcmDecrypt(key, first, 0, first.length), equalTo(plainText));
+        assertThat(CryptoEngine.gcmDecrypt(key, second, 0, second.length), equalTo(plainText));
+    }
+
+    @Test
+    void testDecryptWithOffset() throws Exception {
+        SecretKey key = createAesKey();
+        byte[] plainText = "offset".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = CryptoEngine.gcmEncrypt(key, plainText);
+        byte[] buffer = new byte[encrypted.length + 5];
+        System.arraycopy(encrypted, 0, buffer, 3, encrypted.length);
+
+        assertThat(CryptoEngine.gcmDecrypt(key, buffer, 3, encrypted.length), equalTo(plainText));
+    }
+
+    @Test
+    void testCipherIsReusableAfterFailure() throws Exception {
+        SecretKey key = createAesKey();
+        byte[] encrypted = CryptoEngine.gcmEncrypt(key, "value".getBytes(StandardCharsets.UTF_8));
+        encrypted[encrypted.length - 1] ^= 0x01;
+        Assertions.assertThrows(AEADBadTagException.class, () -> CryptoEngine.gcmDecrypt(key, encrypted, 0, encrypted.length));
+
+        byte[] valid = CryptoEngine.gcmEncrypt(key, "value".getBytes(StandardCharsets.UTF_8));
+        assertThat(CryptoEngine.gcmDecrypt(key, valid, 0, valid.length), equalTo("value".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testHmacMatchesJca() throws Exception {
+        SecretKey key = new SecretKeySpec("first-key".getBytes(StandardCharsets.UTF_8), CryptoEngine.HMAC_SHA512);
+        byte[] data = "Test-String".getBytes(StandardCharsets.UTF_8);
+
+        Mac mac = Mac.getInstance(CryptoEngine.HMAC_SHA512);
+        mac.init(key);
+        byte[] expected = mac.doFinal(data);
+
+        assertThat(CryptoEngine.hmac("KID_1", key, data), equalTo(expected));
+        // second call reuses the initialized Mac
+        assertThat(CryptoEngine.hmac("KID_1", key, data), equalTo(expected));
+    }
+
+    @Test
+    void testHmacKeyChangeForSameKid() {
+        SecretKey key1 = new SecretKeySpec("first-key".getBytes(StandardCharsets.UTF_8), CryptoEngine.HMAC_SHA512);
+        SecretKey key2 = new SecretKeySpec("second-key".getBytes(StandardCharsets.UTF_8), CryptoEngine.HMAC_SHA512);
+        byte[] data = "Test-String".getBytes(StandardCharsets.UTF_8);
+
+        byte[] hmac1 = CryptoEngine.hmac("KID_1", key1, data);
+        byte[] hmac2 = CryptoEngine.hmac("KID_1", key2, data);
+        assertThat(hmac1, not(equalTo(hmac2)));
+    }
+
+    @Test
+    void testConcurrentUsage() throws Exception {
+        SecretKey key = createAesKey();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                results.add(executor.submit(() -> {
+                    byte[] plainText = new byte[64];
+                    new SecureRandom().nextBytes(plainText);
+                    byte[] encrypted = CryptoEngine.gcmEncrypt(key, plainText);
+                    return Arrays.equals(plainText, CryptoEngine.gcmDecrypt(key, encrypted, 0, encrypted.length));
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assertions.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private SecretKey createAesKey() throws NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+        keyGen.init(256);
+        return keyGen.generateKey();
+    }
+}
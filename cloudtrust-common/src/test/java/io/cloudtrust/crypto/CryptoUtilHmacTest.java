@@ -7,6 +7,11 @@ import org.junit.jupiter.api.Test;
 
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
 
 class CryptoUtilHmacTest {
     private static final String DB_HMAC_KEY_ENV_VAR_NAME = "DB_HMAC_KEY";
@@ -34,6 +39,26 @@ class CryptoUtilHmacTest {
     }
 
 
+    @Test
+    void testHmacsWithAllKeys() throws Exception {
+        String textToMac = "Test-String";
+        SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure).execute(() -> {
+            List<String> hmacs = CryptoUtil.computeHmacsForDatabaseStorage(textToMac);
+            assertThat(hmacs.size(), equalTo(2));
+            assertThat(hmacs.get(0), equalTo(CryptoUtil.computeHmacForDatabaseStorage(textToMac)));
+            assertThat(hmacs.get(1), not(equalTo(hmacs.get(0))));
+        });
+        // value hashed before a key rotation
+        String oldHmac = SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEH_1\", \"value\": \"T0xEX0tFWQ==\"}]")
+                .execute(() -> {
+                    CryptoUtil.clearKeys();
+                    return CryptoUtil.computeHmacForDatabaseStorage(textToMac);
+                });
+        CryptoUtil.clearKeys();
+        SystemLambda.withEnvironmentVariable(DB_HMAC_KEY_ENV_VAR_NAME, this.keyStructure)
+                .execute(() -> assertThat(CryptoUtil.computeHmacsForDatabaseStorage(textToMac).get(1), equalTo(oldHmac)));
+    }
+
     @Test
     void testNoEnvVariableDefined() {
         // Assume that DB_HMAC_KEY_ENV_VAR_NAME env variable is not set by default
@@ -5,6 +5,7 @@ import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -12,8 +13,22 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -21,6 +36,16 @@ import static org.hamcrest.number.OrderingComparison.lessThan;
 
 class CryptoUtilTest {
     private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
+    private static final String DB_ENCRYPTION_ENVELOPE_ENV_VAR_NAME = "DB_ENCRYPTION_ENVELOPE";
+    private static final String KEYS = "[" +
+            "{\"kid\": \"TEE_4\", \"value\": \"MDEyMzQ1Njc4OWFiY2RlZg==\"}," +
+            "{\"kid\": \"TEE_3\", \"value\": \"T0xEX0tFWQ==\"}" +
+            "]";
+    private static final String OLD_KEYS = "[{\"kid\": \"TEE_3\", \"value\": \"ZmVkY2JhOTg3NjU0MzIxMA==\"}]";
+    private static final String ROTATED_KEYS = "[" +
+            "{\"kid\": \"TEE_4\", \"value\": \"MDEyMzQ1Njc4OWFiY2RlZg==\"}," +
+            "{\"kid\": \"TEE_3\", \"value\": \"ZmVkY2JhOTg3NjU0MzIxMA==\"}" +
+            "]";
 
     private static final byte[] key = new byte[16];
 
@@ -97,4 +122,271 @@ class CryptoUtilTest {
                 .execute(() -> Assertions.assertThrows(IllegalStateException.class, () -> CryptoUtil.decryptFromDatabaseStorage(encValue)));
     }
 
+    @Test
+    void testCompactEnvelopeEncryptionDecryption() throws Exception {
+        byte[] plainText = new byte[32];
+        new SecureRandom().nextBytes(plainText);
+        byte[] res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .execute(() -> {
+                    String compact = CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.COMPACT);
+                    String json = CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.JSON);
+                    assertThat(compact.length(), lessThan(json.length()));
+                    return CryptoUtil.decryptFromDatabaseStorage(compact);
+                });
+        assertThat(res, equalTo(plainText));
+    }
+
+    @Test
+    void testCompactEnvelopeFromEnvironment() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        String res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .and(DB_ENCRYPTION_ENVELOPE_ENV_VAR_NAME, "compact")
+                .execute(() -> CryptoUtil.encryptForDatabaseStorage(plainText));
+        assertThat(res.startsWith("{"), equalTo(false));
+        assertThat(CompactEnvelope.parse(res).kid, equalTo("TEE_4"));
+    }
+
+    @Test
+    void testInvalidEnvelopeFromEnvironment() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        String res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .and(DB_ENCRYPTION_ENVELOPE_ENV_VAR_NAME, "compakt")
+                .execute(() -> CryptoUtil.encryptForDatabaseStorage(plainText));
+        assertThat(res.startsWith("{"), equalTo(true));
+    }
+
+    @Test
+    void testCompactEnvelopeWithEmptyKey() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        byte[] res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"\"}]")
+                .execute(() -> CryptoUtil.decryptFromDatabaseStorage(CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.COMPACT)));
+        assertThat(res, equalTo(plainText));
+    }
+
+    @Test
+    void testCompactEnvelopeWithMissingKey() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        String encrypted = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .execute(() -> CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.COMPACT));
+        CryptoUtil.clearKeys();
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"T0xEX0tFWQ==\"}]")
+                .execute(() -> Assertions.assertThrows(IllegalStateException.class, () -> CryptoUtil.decryptFromDatabaseStorage(encrypted)));
+    }
+
+    @Test
+    void testCompactEnvelopeLookalikeIsReadAsClearText() throws Exception {
+        // starts like a compact envelope but is not one
+        byte[] res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .execute(() -> CryptoUtil.decryptFromDatabaseStorage("xwhatever"));
+        assertThat(res, equalTo("xwhatever".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testBatchEncryptionDecryption() throws Exception {
+        List<byte[]> plainTexts = IntStream.range(0, 20)
+                .mapToObj(i -> ("value-" + i).getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        List<byte[]> res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .execute(() -> CryptoUtil.decryptFromDatabaseStorage(CryptoUtil.encryptForDatabaseStorage(plainTexts)));
+        assertThat(res.size(), equalTo(plainTexts.size()));
+        for (int i = 0; i < plainTexts.size(); i++) {
+            assertThat(res.get(i), equalTo(plainTexts.get(i)));
+        }
+    }
+
+    @Test
+    void testParallelBatchEncryptionDecryption() throws Exception {
+        List<byte[]> plainTexts = IntStream.range(0, 200)
+                .mapToObj(i -> ("value-" + i).getBytes(StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<byte[]> res = SystemLambda
+                    .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                    .execute(() -> CryptoUtil.decryptFromDatabaseStorage(CryptoUtil.encryptForDatabaseStorage(plainTexts, pool), pool));
+            assertThat(res.size(), equalTo(plainTexts.size()));
+            for (int i = 0; i < plainTexts.size(); i++) {
+                assertThat(res.get(i), equalTo(plainTexts.get(i)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testStreamDecryptionOfMixedFormats() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        List<byte[]> res = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS)
+                .execute(() -> CryptoUtil.decryptFromDatabaseStorage(Stream.of(
+                        CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.JSON),
+                        CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.COMPACT),
+                        "TEST")).collect(Collectors.toList()));
+        assertThat(res.size(), equalTo(3));
+        res.forEach(value -> assertThat(value, equalTo(plainText)));
+    }
+
+    @Test
+    void testReEncryptionAfterKeyRotation() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        List<String> stored = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, OLD_KEYS)
+                .execute(() -> Arrays.asList(
+                        CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.JSON),
+                        CryptoUtil.encryptForDatabaseStorage(plainText, EnvelopeFormat.COMPACT)));
+        CryptoUtil.clearKeys();
+
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, ROTATED_KEYS).execute(() -> {
+            String current = CryptoUtil.encryptForDatabaseStorage(plainText);
+            List<String> values = Arrays.asList(stored.get(0), stored.get(1), current, "clear-text");
+            assertThat(CryptoUtil.getDatabaseStorageKid(stored.get(0)), equalTo("TEE_3"));
+            assertThat(CryptoUtil.getDatabaseStorageKid(stored.get(1)), equalTo("TEE_3"));
+            assertThat(CryptoUtil.getDatabaseStorageKid("clear-text"), equalTo(null));
+            assertThat(CryptoUtil.needsReEncryption(stored.get(0)), equalTo(true));
+            assertThat(CryptoUtil.needsReEncryption(current), equalTo(false));
+            assertThat(CryptoUtil.needsReEncryption("clear-text"), equalTo(false));
+
+            List<String> reEncrypted = CryptoUtil.reEncryptForDatabaseStorage(values);
+            assertThat(CryptoUtil.getDatabaseStorageKid(reEncrypted.get(0)), equalTo("TEE_4"));
+            assertThat(CryptoUtil.getDatabaseStorageKid(reEncrypted.get(1)), equalTo("TEE_4"));
+            assertThat(reEncrypted.get(2), equalTo(current));
+            assertThat(reEncrypted.get(3), equalTo("clear-text"));
+            assertThat(CryptoUtil.decryptFromDatabaseStorage(reEncrypted.get(0)), equalTo(plainText));
+            assertThat(CryptoUtil.decryptFromDatabaseStorage(reEncrypted.get(1)), equalTo(plainText));
+        });
+    }
+
+    @Test
+    void testReloadKeys() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        String encrypted = SystemLambda
+                .withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, OLD_KEYS)
+                .execute(() -> CryptoUtil.encryptForDatabaseStorage(plainText));
+        assertThat(CryptoUtil.getDatabaseStorageKid(encrypted), equalTo("TEE_3"));
+
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, ROTATED_KEYS).execute(() -> {
+            // keys are not reloaded until explicitly requested
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_3"));
+            CryptoUtil.reloadKeys();
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_4"));
+            assertThat(CryptoUtil.decryptFromDatabaseStorage(encrypted), equalTo(plainText));
+        });
+    }
+
+    @Test
+    void testFailedReloadKeepsPreviousKeys() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, OLD_KEYS)
+                .execute(() -> CryptoUtil.encryptForDatabaseStorage(plainText));
+
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[]").execute(() -> {
+            Assertions.assertThrows(IllegalStateException.class, CryptoUtil::reloadKeys);
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_3"));
+        });
+    }
+
+    @Test
+    void testConcurrentFirstAccess() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, KEYS).execute(() -> {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            CountDownLatch latch = new CountDownLatch(1);
+            try {
+                List<Future<String>> results = new ArrayList<>();
+                for (int i = 0; i < 32; i++) {
+                    results.add(executor.submit(() -> {
+                        latch.await();
+                        return CryptoUtil.encryptForDatabaseStorage(plainText);
+                    }));
+                }
+                latch.countDown();
+                for (Future<String> result : results) {
+                    assertThat(CryptoUtil.decryptFromDatabaseStorage(result.get()), equalTo(plainText));
+                }
+            } finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    @Test
+    void testSetKeySource(@TempDir Path directory) throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        Files.write(directory.resolve(DB_ENCRYPTION_KEY_ENV_VAR_NAME), OLD_KEYS.getBytes(StandardCharsets.UTF_8));
+        CryptoUtil.setKeySource(new FileKeySource(directory));
+        String encrypted = CryptoUtil.encryptForDatabaseStorage(plainText);
+        assertThat(CryptoUtil.getDatabaseStorageKid(encrypted), equalTo("TEE_3"));
+
+        Files.write(directory.resolve(DB_ENCRYPTION_KEY_ENV_VAR_NAME), ROTATED_KEYS.getBytes(StandardCharsets.UTF_8));
+        CryptoUtil.reloadKeys();
+        assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_4"));
+        assertThat(CryptoUtil.decryptFromDatabaseStorage(encrypted), equalTo(plainText));
+    }
+
+    @Test
+    void testSetInvalidKeySourceKeepsPreviousKeys(@TempDir Path directory) throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, OLD_KEYS).execute(() -> {
+            CryptoUtil.encryptForDatabaseStorage(plainText);
+            KeySource emptySource = new FileKeySource(directory);
+            Assertions.assertThrows(IllegalStateException.class, () -> CryptoUtil.setKeySource(emptySource));
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_3"));
+            CryptoUtil.reloadKeys();
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_3"));
+        });
+    }
+
+    @Test
+    void testWatchKeySource(@TempDir Path directory) throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        Path keyFile = directory.resolve(DB_ENCRYPTION_KEY_ENV_VAR_NAME);
+        Files.write(keyFile, OLD_KEYS.getBytes(StandardCharsets.UTF_8));
+        try (KeySourceWatcher ignored = CryptoUtil.watchKeySource(new FileKeySource(directory), Duration.ofMillis(50))) {
+            assertThat(CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText)), equalTo("TEE_3"));
+
+            Files.write(keyFile, ROTATED_KEYS.getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 5000;
+            String kid;
+            do {
+                Thread.sleep(20);
+                kid = CryptoUtil.getDatabaseStorageKid(CryptoUtil.encryptForDatabaseStorage(plainText));
+            } while (!"TEE_4".equals(kid) && System.currentTimeMillis() < deadline);
+            assertThat(kid, equalTo("TEE_4"));
+        }
+    }
+
+    @Test
+    void testDecryptionCache() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofMinutes(1));
+        CryptoUtil.setDecryptionCache(cache);
+        String encrypted = CryptoUtil.encryptForDatabaseStorage(plainText);
+
+        assertThat(CryptoUtil.decryptFromDatabaseStorage(encrypted), equalTo(plainText));
+        assertThat(CryptoUtil.decryptFromDatabaseStorage(encrypted), equalTo(plainText));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitCount(), equalTo(1L));
+
+        CryptoUtil.reloadKeys();
+        assertThat(cache.size(), equalTo(0));
+        assertThat(CryptoUtil.decryptFromDatabaseStorage(encrypted), equalTo(plainText));
+        assertThat(cache.getMissCount(), equalTo(2L));
+    }
+
+    @Test
+    void testWatchInterval() throws Exception {
+        SystemLambda.withEnvironmentVariable("DB_KEYS_WATCH_INTERVAL", "30")
+                .execute(() -> assertThat(CryptoUtil.getWatchInterval(), equalTo(Duration.ofSeconds(30))));
+        SystemLambda.withEnvironmentVariable("DB_KEYS_WATCH_INTERVAL", "30s")
+                .execute(() -> assertThat(CryptoUtil.getWatchInterval(), equalTo(Duration.ofSeconds(10))));
+        SystemLambda.withEnvironmentVariable("DB_KEYS_WATCH_INTERVAL", "0")
+                .execute(() -> assertThat(CryptoUtil.getWatchInterval(), equalTo(Duration.ofSeconds(10))));
+    }
 }
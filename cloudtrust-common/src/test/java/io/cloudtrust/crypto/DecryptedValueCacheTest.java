@@ -0,0 +1,171 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class DecryptedValueCacheTest {
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicInteger decryptions = new AtomicInteger();
+    private final Function<String, byte[]> decryptor = data -> {
+        decryptions.incrementAndGet();
+        return data.toUpperCase().getBytes(StandardCharsets.UTF_8);
+    };
+
+    @Test
+    void testHitAndMiss() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofSeconds(10), clock::get);
+
+        assertThat(cache.get("value", decryptor), equalTo("VALUE".getBytes(StandardCharsets.UTF_8)));
+        assertThat(cache.get("value", decryptor), equalTo("VALUE".getBytes(StandardCharsets.UTF_8)));
+        assertThat(decryptions.get(), equalTo(1));
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    void testReturnedValueIsACopy() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofSeconds(10), clock::get);
+
+        cache.get("value", decryptor)[0] = 'X';
+        assertThat(cache.get("value", decryptor), equalTo("VALUE".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testExpiration() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofSeconds(10), clock::get);
+
+        cache.get("value", decryptor);
+        clock.addAndGet(Duration.ofSeconds(9).toNanos());
+        cache.get("value", decryptor);
+        assertThat(decryptions.get(), equalTo(1));
+        clock.addAndGet(Duration.ofSeconds(2).toNanos());
+        cache.get("value", decryptor);
+        assertThat(decryptions.get(), equalTo(2));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEviction() {
+        DecryptedValueCache cache = new DecryptedValueCache(2, Duration.ofSeconds(10), clock::get);
+
+        cache.get("first", decryptor);
+        cache.get("second", decryptor);
+        cache.get("first", decryptor);
+        cache.get("third", decryptor);
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.getEvictionCount(), equalTo(1L));
+
+        cache.get("first", decryptor);
+        assertThat(decryptions.get(), equalTo(3));
+        cache.get("second", decryptor);
+        assertThat(decryptions.get(), equalTo(4));
+    }
+
+    @Test
+    void testClear() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofSeconds(10), clock::get);
+
+        cache.get("value", decryptor);
+        cache.clear();
+        assertThat(cache.size(), equalTo(0));
+        cache.get("value", decryptor);
+        assertThat(decryptions.get(), equalTo(2));
+    }
+
+    @Test
+    void testValueDecryptedDuringClearIsNotCached() {
+        DecryptedValueCache cache = new DecryptedValueCache(10, Duration.ofSeconds(10), clock::get);
+
+        cache.get("value", data -> {
+            cache.clear();
+            return decryptor.apply(data);
+        });
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    void testEvictionByBatch() {
+        DecryptedValueCache cache = new DecryptedValueCache(20, Duration.ofSeconds(10), clock::get);
+
+        for (int i = 0; i < 20; i++) {
+            cache.get("value" + i, decryptor);
+        }
+        cache.get("value0", decryptor);
+        cache.get("value20", decryptor);
+        // a tenth of the cache is evicted at once, least recently used first
+        assertThat(cache.size(), equalTo(19));
+        assertThat(cache.getEvictionCount(), equalTo(2L));
+        cache.get("value0", decryptor);
+        assertThat(decryptions.get(), equalTo(21));
+        cache.get("value1", decryptor);
+        assertThat(decryptions.get(), equalTo(22));
+    }
+
+    @Test
+    void testConcurrentAccess() throws InterruptedException {
+        DecryptedValueCache cache = new DecryptedValueCache(50, Duration.ofSeconds(10), clock::get);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int seed = t;
+            results.add(executor.submit(() -> {
+                boolean valid = true;
+                for (int i = 0; i < 2000; i++) {
+                    String data = "value" + ((i * 7 + seed) % 100);
+                    valid &= Arrays.equals(cache.get(data, decryptor), data.toUpperCase().getBytes(StandardCharsets.UTF_8));
+                }
+                return valid;
+            }));
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        for (Future<Boolean> result : results) {
+            Assertions.assertTrue(Assertions.assertDoesNotThrow(() -> result.get()), "Unexpected decrypted value");
+        }
+        assertThat(cache.getHitCount() + cache.getMissCount(), equalTo(16000L));
+        Assertions.assertTrue(cache.size() <= 50, "Unexpected size " + cache.size());
+    }
+
+    @Test
+    void testInvalidSize() {
+        Duration ttl = Duration.ofSeconds(10);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new DecryptedValueCache(0, ttl));
+    }
+
+    @Test
+    void testFromEnvironment() throws Exception {
+        SystemLambda.withEnvironmentVariable(DecryptedValueCache.SIZE_ENV_VAR_NAME, "100")
+                .and(DecryptedValueCache.TTL_ENV_VAR_NAME, "60")
+                .execute(() -> Assertions.assertNotNull(DecryptedValueCache.fromEnvironment()));
+        SystemLambda.withEnvironmentVariable(DecryptedValueCache.SIZE_ENV_VAR_NAME, null)
+                .execute(() -> Assertions.assertNull(DecryptedValueCache.fromEnvironment()));
+    }
+
+    @Test
+    void testInvalidEnvironmentDisablesCache() throws Exception {
+        SystemLambda.withEnvironmentVariable(DecryptedValueCache.SIZE_ENV_VAR_NAME, "1O0")
+                .execute(() -> Assertions.assertNull(DecryptedValueCache.fromEnvironment()));
+        SystemLambda.withEnvironmentVariable(DecryptedValueCache.SIZE_ENV_VAR_NAME, "100")
+                .and(DecryptedValueCache.TTL_ENV_VAR_NAME, "5m")
+                .execute(() -> Assertions.assertNull(DecryptedValueCache.fromEnvironment()));
+        SystemLambda.withEnvironmentVariable(DecryptedValueCache.SIZE_ENV_VAR_NAME, "100")
+                .and(DecryptedValueCache.TTL_ENV_VAR_NAME, "-1")
+                .execute(() -> Assertions.assertNull(DecryptedValueCache.fromEnvironment()));
+    }
+}
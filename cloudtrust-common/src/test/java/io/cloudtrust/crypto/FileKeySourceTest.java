@@ -0,0 +1,32 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class FileKeySourceTest {
+    @Test
+    void testReadKeys(@TempDir Path directory) throws Exception {
+        Files.write(directory.resolve("DB_HMAC_KEY"), "[]".getBytes(StandardCharsets.UTF_8));
+        FileKeySource source = new FileKeySource(directory);
+
+        assertThat(source.getKeys("DB_HMAC_KEY"), equalTo("[]"));
+        assertThat(source.getKeys("DB_ENCRYPTION_KEY"), nullValue());
+    }
+
+    @Test
+    void testFallback(@TempDir Path directory) throws Exception {
+        Files.write(directory.resolve("DB_HMAC_KEY"), "[]".getBytes(StandardCharsets.UTF_8));
+        FileKeySource source = new FileKeySource(directory, name -> "fallback-" + name);
+
+        assertThat(source.getKeys("DB_HMAC_KEY"), equalTo("[]"));
+        assertThat(source.getKeys("DB_ENCRYPTION_KEY"), equalTo("fallback-DB_ENCRYPTION_KEY"));
+    }
+}
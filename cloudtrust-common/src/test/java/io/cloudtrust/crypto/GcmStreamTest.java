@@ -0,0 +1,135 @@
+package io.cloudtrust.crypto;
+
+import com.github.stefanbirkner.systemlambda.SystemLambda;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class GcmStreamTest {
+    private static final String DB_ENCRYPTION_KEY_ENV_VAR_NAME = "DB_ENCRYPTION_KEY";
+    private static final int CHUNK_SIZE = 16;
+
+    private final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+
+    @BeforeEach
+    public void init() {
+        CryptoUtil.clearKeys();
+    }
+
+    @Test
+    void testEncryptDecrypt() throws IOException {
+        for (int size : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 2 * CHUNK_SIZE, 1000}) {
+            byte[] plainText = randomBytes(size);
+            byte[] encrypted = encrypt(plainText);
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            CryptoUtil.gcmDecrypt(key, new ByteArrayInputStream(encrypted), decrypted);
+            assertThat(decrypted.toByteArray(), equalTo(plainText));
+        }
+    }
+
+    @Test
+    void testDefaultChunkSize() throws IOException {
+        byte[] plainText = randomBytes(3 * StreamEnvelope.DEFAULT_CHUNK_SIZE + 5);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        CryptoUtil.gcmEncrypt(key, new ByteArrayInputStream(plainText), encrypted);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        CryptoUtil.gcmDecrypt(key, new ByteArrayInputStream(encrypted.toByteArray()), decrypted);
+        assertThat(decrypted.toByteArray(), equalTo(plainText));
+    }
+
+    @Test
+    void testTruncatedStream() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(3 * CHUNK_SIZE));
+        for (int length = 0; length < encrypted.length; length++) {
+            InputStream truncated = new ByteArrayInputStream(Arrays.copyOf(encrypted, length));
+            Assertions.assertThrows(IOException.class, () -> CryptoUtil.gcmDecrypt(key, truncated, new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void testAlteredStream() throws IOException {
+        byte[] encrypted = encrypt(randomBytes(3 * CHUNK_SIZE));
+        encrypted[encrypted.length - CHUNK_SIZE] ^= 0x01;
+        InputStream altered = new ByteArrayInputStream(encrypted);
+        Assertions.assertThrows(IOException.class, () -> CryptoUtil.gcmDecrypt(key, altered, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testByteBuffers() throws Exception {
+        byte[] plainText = randomBytes(100);
+        ByteBuffer input = ByteBuffer.allocateDirect(plainText.length);
+        input.put(plainText).flip();
+        ByteBuffer encrypted = ByteBuffer.allocateDirect(CryptoEngine.gcmOutputLength(plainText.length));
+
+        assertThat(CryptoUtil.gcmEncrypt(key, input, encrypted), equalTo(CryptoEngine.gcmOutputLength(plainText.length)));
+        encrypted.flip();
+        ByteBuffer decrypted = ByteBuffer.allocate(plainText.length);
+        assertThat(CryptoUtil.gcmDecrypt(key, encrypted, decrypted), equalTo(plainText.length));
+        assertThat(decrypted.array(), equalTo(plainText));
+    }
+
+    @Test
+    void testDatabaseStorageStreams() throws Exception {
+        byte[] plainText = "This is a large document".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream output = CryptoUtil.encryptingStreamForDatabaseStorage(encrypted)) {
+            output.write(plainText);
+        }
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        try (InputStream input = CryptoUtil.decryptingStreamFromDatabaseStorage(new ByteArrayInputStream(encrypted.toByteArray()))) {
+            int b;
+            while ((b = input.read()) >= 0) {
+                decrypted.write(b);
+            }
+        }
+        assertThat(decrypted.toByteArray(), equalTo(plainText));
+    }
+
+    @Test
+    void testDatabaseStorageStreamsWithEmptyKey() throws Exception {
+        byte[] plainText = "TEST".getBytes(StandardCharsets.UTF_8);
+        SystemLambda.withEnvironmentVariable(DB_ENCRYPTION_KEY_ENV_VAR_NAME, "[{\"kid\": \"TEE_3\", \"value\": \"\"}]").execute(() -> {
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            try (OutputStream output = CryptoUtil.encryptingStreamForDatabaseStorage(encrypted)) {
+                output.write(plainText);
+            }
+            InputStream input = CryptoUtil.decryptingStreamFromDatabaseStorage(new ByteArrayInputStream(encrypted.toByteArray()));
+            byte[] decrypted = new byte[plainText.length];
+            assertThat(input.read(decrypted), equalTo(plainText.length));
+            assertThat(input.read(), equalTo(-1));
+            assertThat(decrypted, equalTo(plainText));
+        });
+    }
+
+    private byte[] encrypt(byte[] plainText) throws IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream output = new GcmEncryptingOutputStream(encrypted, key, null, CHUNK_SIZE)) {
+            output.write(plainText);
+        }
+        return encrypted.toByteArray();
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,49 @@
+package io.cloudtrust.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class KeyRingTest {
+    @Test
+    void testCurrentIsMostRecentKey() {
+        KeyRing keyRing = KeyRing.of(Arrays.asList(entry("TEE_2"), entry("TEE_10"), entry("TEE_3")));
+
+        assertThat(keyRing.current().getKid(), equalTo("TEE_10"));
+        assertThat(keyRing.entries().get(1).getKid(), equalTo("TEE_3"));
+        assertThat(keyRing.entries().get(2).getKid(), equalTo("TEE_2"));
+    }
+
+    @Test
+    void testGetKey() {
+        AesKeyEntry entry = entry("TEE_2");
+        KeyRing keyRing = KeyRing.of(Collections.singletonList(entry));
+
+        assertThat(keyRing.get("TEE_2"), equalTo(entry.getKey()));
+        assertThat(keyRing.get("TEE_1"), nullValue());
+    }
+
+    @Test
+    void testKeyRingIsImmutable() {
+        KeyRing keyRing = KeyRing.of(Collections.singletonList(entry("TEE_2")));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> keyRing.entries().clear());
+    }
+
+    @Test
+    void testEmptyKeyRing() {
+        Assertions.assertThrows(IllegalStateException.class, () -> KeyRing.of(Collections.emptyList()));
+    }
+
+    private AesKeyEntry entry(String kid) {
+        AesKeyEntry entry = new AesKeyEntry();
+        entry.setKid(kid);
+        entry.setValue("0123456789abcdef".getBytes());
+        return entry;
+    }
+}
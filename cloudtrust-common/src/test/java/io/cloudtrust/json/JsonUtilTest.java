@@ -0,0 +1,44 @@
+package io.cloudtrust.json;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+class JsonUtilTest {
+    @Test
+    void testReadersAndWritersAreShared() {
+        assertThat(JsonUtil.readerFor(Map.class), sameInstance(JsonUtil.readerFor(Map.class)));
+        assertThat(JsonUtil.writerFor(Map.class), sameInstance(JsonUtil.writerFor(Map.class)));
+        assertThat(JsonUtil.readerFor(new TypeReference<List<String>>() {
+        }), sameInstance(JsonUtil.readerFor(new TypeReference<List<String>>() {
+        })));
+    }
+
+    @Test
+    void testReadValue() throws IOException {
+        assertThat(JsonUtil.readValue("{\"key\":\"value\"}", Map.class), equalTo(Collections.singletonMap("key", "value")));
+        List<Integer> values = JsonUtil.readValue("[1,2,3]", new TypeReference<List<Integer>>() {
+        });
+        assertThat(values, equalTo(Arrays.asList(1, 2, 3)));
+    }
+
+    @Test
+    void testReadInvalidValue() {
+        Assertions.assertThrows(IOException.class, () -> JsonUtil.readValue("{not json", Map.class));
+    }
+
+    @Test
+    void testToJson() throws IOException {
+        assertThat(JsonUtil.toJson(Collections.singletonMap("key", Arrays.asList(1, 2))), equalTo("{\"key\":[1,2]}"));
+    }
+}
@@ -2,7 +2,7 @@ package io.cloudtrust.keycloak;
 
 import java.util.List;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cloudtrust.json.JsonUtil;
 
 public class CloudtrustContext {
     private String credentialId;
@@ -26,7 +26,7 @@ public class CloudtrustContext {
 
     public String toString() {
         try {
-            return new ObjectMapper().writeValueAsString(this);
+            return JsonUtil.toJson(this);
         } catch(Exception e) {
             return super.toString();
         }
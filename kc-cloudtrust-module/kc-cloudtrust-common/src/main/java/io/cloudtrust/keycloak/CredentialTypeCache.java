@@ -0,0 +1,125 @@
+package io.cloudtrust.keycloak;
+
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.credential.CredentialTypeMetadata;
+import org.keycloak.credential.CredentialTypeMetadataContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Display names of the credential types, as declared by the metadata of the credential providers. They are used by
+ * {@link FormUtils} to match the credential types with the authentication selections of a flow. The metadata only
+ * depends on the deployed providers: it is computed once per realm and dropped when the credential provider factories
+ * change (redeployment), which is checked at most once per {@link #FACTORIES_CHECK_INTERVAL}. The executions of the flow
+ * are taken from the authentication selections of each request, so flow updates are taken into account immediately.
+ * <p>
+ * The metadata context requires a user: the display names are computed with the user of the first request and are
+ * assumed not to depend on the user, which holds for the Keycloak and Cloudtrust credential providers. Providers whose
+ * display name depends on the user are not supported.
+ */
+class CredentialTypeCache {
+    static final Duration FACTORIES_CHECK_INTERVAL = Duration.ofSeconds(10);
+    private static final Map<KeycloakSessionFactory, CredentialTypeCache> CACHES = new WeakHashMap<>();
+    private static volatile CheckedCache lastChecked;
+    static long factoriesCheckIntervalNanos = FACTORIES_CHECK_INTERVAL.toNanos();
+
+    private final List<?> providerFactories;
+    private final Map<String, Map<String, String>> displayNamesByRealm = new ConcurrentHashMap<>();
+
+    private CredentialTypeCache(List<?> providerFactories) {
+        this.providerFactories = providerFactories;
+    }
+
+    /**
+     * Gets the display name of each credential type
+     *
+     * @param session Keycloak session
+     * @param realm   realm
+     * @param user    user, only used to build the metadata context when the display names are not known yet
+     * @return the display names indexed by credential type
+     */
+    static Map<String, String> getDisplayNames(KeycloakSession session, RealmModel realm, UserModel user) {
+        CredentialTypeCache cache = get(session.getKeycloakSessionFactory());
+        if (cache == null) {
+            return loadDisplayNames(session, user);
+        }
+        Map<String, String> displayNames = cache.displayNamesByRealm.get(realm.getId());
+        if (displayNames == null) {
+            displayNames = loadDisplayNames(session, user);
+            cache.displayNamesByRealm.putIfAbsent(realm.getId(), displayNames);
+        }
+        return displayNames;
+    }
+
+    private static CredentialTypeCache get(KeycloakSessionFactory sessionFactory) {
+        if (sessionFactory == null) {
+            return null;
+        }
+        long now = System.nanoTime();
+        CheckedCache checked = lastChecked;
+        if (checked != null && checked.sessionFactory.get() == sessionFactory && now - checked.checkedAt < factoriesCheckIntervalNanos) {
+            return checked.cache;
+        }
+        List<?> factories = sessionFactory.getProviderFactoriesStream(CredentialProvider.class).collect(Collectors.toList());
+        synchronized (CACHES) {
+            CredentialTypeCache cache = CACHES.get(sessionFactory);
+            if (cache == null || !cache.sameFactories(factories)) {
+                cache = new CredentialTypeCache(factories);
+                CACHES.put(sessionFactory, cache);
+            }
+            lastChecked = new CheckedCache(sessionFactory, cache, now);
+            return cache;
+        }
+    }
+
+    private static Map<String, String> loadDisplayNames(KeycloakSession session, UserModel user) {
+        CredentialTypeMetadataContext ctmCtx = CredentialTypeMetadataContext.builder().user(user).build(session);
+        Map<String, String> res = new HashMap<>();
+        session.getAllProviders(CredentialProvider.class).forEach(p -> {
+            CredentialTypeMetadata md = p.getCredentialTypeMetadata(ctmCtx);
+            if (md != null) {
+                res.put(p.getType(), md.getDisplayName());
+            }
+        });
+        return Collections.unmodifiableMap(res);
+    }
+
+    private boolean sameFactories(List<?> factories) {
+        if (factories.size() != providerFactories.size()) {
+            return false;
+        }
+        for (int i = 0; i < factories.size(); i++) {
+            if (factories.get(i) != providerFactories.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cache returned by the last lookup, reused without comparing the provider factories until the check interval elapsed
+     */
+    private static final class CheckedCache {
+        private final WeakReference<KeycloakSessionFactory> sessionFactory;
+        private final CredentialTypeCache cache;
+        private final long checkedAt;
+
+        private CheckedCache(KeycloakSessionFactory sessionFactory, CredentialTypeCache cache, long checkedAt) {
+            this.sessionFactory = new WeakReference<>(sessionFactory);
+            this.cache = cache;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package io.cloudtrust.keycloak;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.AuthenticationExecutionModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable form model exposed to the login templates as "ctContext", with the same properties as
+ * {@link CloudtrustContext}: the selected credential id and, for each credential of the user, the execution able to
+ * check it. A model is built for each render and computes its JSON representation once.
+ */
+public final class CtFormModel {
+    private static final ObjectWriter WRITER = JsonUtil.writerFor(CtFormModel.class);
+
+    private final String credentialId;
+    private final List<Option> credentials;
+    private volatile String json;
+
+    private CtFormModel(String credentialId, List<Option> credentials) {
+        this.credentialId = credentialId;
+        this.credentials = Collections.unmodifiableList(credentials);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String getCredentialId() {
+        return credentialId;
+    }
+
+    public List<Option> getCredentials() {
+        return credentials;
+    }
+
+    @Override
+    public String toString() {
+        String res = json;
+        if (res == null) {
+            try {
+                res = WRITER.writeValueAsString(this);
+                json = res;
+            } catch (Exception e) {
+                return super.toString();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Credential of the user with the execution able to check it, see {@link AlternativeAuthenticator}
+     */
+    public static final class Option {
+        private final String id;
+        private final String authExecId;
+        private final String authExecName;
+        private final String credentialId;
+        private final String credentialName;
+
+        private Option(String authExecId, String authExecName, String credentialId, String credentialName) {
+            this.id = authExecId + "|" + (credentialId == null ? "" : credentialId);
+            this.authExecId = authExecId;
+            this.authExecName = authExecName;
+            this.credentialId = credentialId;
+            this.credentialName = credentialName;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAuthExecId() {
+            return authExecId;
+        }
+
+        public String getAuthExecName() {
+            return authExecName;
+        }
+
+        public String getCredentialId() {
+            return credentialId;
+        }
+
+        public String getCredentialName() {
+            return credentialName;
+        }
+
+        public boolean showCredentialType() {
+            return false;
+        }
+    }
+
+    public static final class Builder {
+        private String credentialId;
+        private final List<AuthenticationExecutionModel> authExecs = new ArrayList<>();
+        private final List<CredentialModel> credentials = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder credentialId(String credentialId) {
+            this.credentialId = credentialId;
+            return this;
+        }
+
+        public Builder credential(AuthenticationExecutionModel authExec, CredentialModel credential) {
+            authExecs.add(authExec);
+            credentials.add(credential);
+            return this;
+        }
+
+        public CtFormModel build() {
+            List<Option> options = new ArrayList<>(credentials.size());
+            for (int i = 0; i < credentials.size(); i++) {
+                AuthenticationExecutionModel authExec = authExecs.get(i);
+                CredentialModel credential = credentials.get(i);
+                options.add(new Option(authExec.getId(), authExec.getAuthenticator(), credential.getId(), credential.getUserLabel()));
+            }
+            return new CtFormModel(credentialId, options);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package io.cloudtrust.keycloak;
 
 import io.cloudtrust.keycloak.authentication.actiontoken.CtExecuteActionsActionToken;
+import io.cloudtrust.keycloak.email.EmailDispatcher;
+import io.cloudtrust.keycloak.email.RenderingEmailTemplateProvider;
 import org.apache.commons.lang3.StringUtils;
 import org.jboss.logging.Logger;
 import org.keycloak.common.util.Time;
@@ -25,6 +27,10 @@ public class ExecuteActionsEmailHelper {
     public static final String VERIFY_EMAIL_ACTION = "ct-verify-email";
     public static final String ATTRB_EMAIL_TO_VALIDATE = "emailToValidate";
 
+    /**
+     * Sends the execute actions email through {@link EmailDispatcher#getInstance()}: when the dispatcher is asynchronous,
+     * the email is rendered in the request and sent by a worker, and failures are retried and logged instead of being thrown.
+     */
     public static void sendExecuteActionsEmail(KeycloakSession session, RealmModel realm, UserModel user, List<String> actions, Integer lifespan, String redirectUri, String clientId, Map<String, String> attributes) throws EmailException {
         if (lifespan == null) {
             lifespan = realm.getActionTokenGeneratedByAdminLifespan();
@@ -42,21 +48,35 @@ public class ExecuteActionsEmailHelper {
 
         String link = builder.build(realm.getName()).toString();
 
+        EmailDispatcher dispatcher = EmailDispatcher.getInstance();
+        if (dispatcher.isAsynchronous() && RenderingEmailTemplateProvider.canRender(session)) {
+            // Rendering depends on the request (base URI, locale, theme): only the SMTP send is left to the dispatcher
+            RenderingEmailTemplateProvider renderer = new RenderingEmailTemplateProvider(session);
+            sendExecuteActionsEmail(renderer, session, realm, user, actions, token.getRequiredActions(), link, lifespan, attributes);
+            dispatcher.dispatch(session, realm, user, renderer.getRenderedEmail());
+        } else {
+            sendExecuteActionsEmail(session.getProvider(EmailTemplateProvider.class), session, realm, user, actions,
+                    token.getRequiredActions(), link, lifespan, attributes);
+        }
+    }
+
+    private static void sendExecuteActionsEmail(EmailTemplateProvider emailTemplateProv, KeycloakSession session, RealmModel realm, UserModel user,
+                                                List<String> actions, List<String> requiredActions, String link, int lifespan,
+                                                Map<String, String> attributes) throws EmailException {
         if (actions.contains(VERIFY_EMAIL_ACTION) && checkAlreadyUsedEmail(session, realm, user)) {
             // Can't validate email as another user is already using the specified one
             Map<String, Object> params = new HashMap<>();
             params.put("user", new ProfileBean(user));
             // Link is used by themes to build static resource (images)
             params.put("link", link);
-            session.getProvider(EmailTemplateProvider.class)
+            emailTemplateProv
                     .setRealm(realm)
                     .setUser(user)
                     .send("notifEmailAlreadyExistsSubject", "notif-email-already-exists.ftl", params);
             return;
         }
 
-        EmailTemplateProvider emailTemplateProv = session.getProvider(EmailTemplateProvider.class)
-                .setAttribute(Constants.TEMPLATE_ATTR_REQUIRED_ACTIONS, token.getRequiredActions());
+        emailTemplateProv.setAttribute(Constants.TEMPLATE_ATTR_REQUIRED_ACTIONS, requiredActions);
         if (attributes != null) {
             attributes.forEach(emailTemplateProv::setAttribute);
         }
@@ -1,19 +1,16 @@
 package io.cloudtrust.keycloak;
 
-import org.apache.commons.lang3.tuple.Pair;
+import io.cloudtrust.keycloak.models.CredentialSnapshot;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationSelectionOption;
 import org.keycloak.credential.CredentialModel;
-import org.keycloak.credential.CredentialProvider;
-import org.keycloak.credential.CredentialTypeMetadata;
-import org.keycloak.credential.CredentialTypeMetadataContext;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.AuthenticationExecutionModel;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -50,11 +47,13 @@ public class FormUtils {
      */
     @Deprecated
     public static LoginFormsProvider getFormWithAuthenticators(AuthenticationFlowContext context, String selectedCredentialId) {
-        return getFormWithAuthenticators(context, selectedCredentialId, u -> {
-        });
+        return getFormWithAuthenticators(context, selectedCredentialId, null);
     }
 
     /**
+     * The form model set as "ctContext" is immutable (see {@link CtFormModel}).
+     *
+     * @param optionUpdater notified of each alternative when the model is built, may be null
      * @deprecated We shall try to use the Keycloak OOTB way of selecting authenticators. Use new CtAuthenticatorBean(...) instead
      */
     @Deprecated
@@ -63,39 +62,24 @@ public class FormUtils {
 
         Map<String, AuthenticationExecutionModel> authExecs = context.getAuthenticationSelections().stream()
                 .collect(Collectors.toMap(AuthenticationSelectionOption::getDisplayName, AuthenticationSelectionOption::getAuthenticationExecution));
-        final CredentialTypeMetadataContext ctmCtx = CredentialTypeMetadataContext.builder().user(context.getUser()).build(context.getSession());
-        Map<String, AuthenticationExecutionModel> authTypes = context.getSession().getAllProviders(CredentialProvider.class).stream()
-                .map(p -> {
-                    CredentialTypeMetadata md = p.getCredentialTypeMetadata(ctmCtx);
-                    if (md == null) {
-                        return null;
-                    }
-                    AuthenticationExecutionModel authExec = authExecs.get(md.getDisplayName());
-                    if (authExec == null) {
-                        return null;
-                    }
-                    return Pair.of(p.getType(), authExec);
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toMap(Pair::getLeft, Pair::getRight));
-        List<AlternativeAuthenticator> credentials = context.getSession().userCredentialManager().getStoredCredentialsStream(context.getRealm(), context.getUser())
-                .map(c -> {
-                    AuthenticationExecutionModel authExec = authTypes.get(c.getType());
-                    if (authExec == null) {
-                        return null;
-                    }
-                    AlternativeAuthenticator ao = new AlternativeAuthenticator(authExec, c);
-                    optionUpdater.accept(ao);
-                    return ao;
-                })
-                .filter(Objects::nonNull)
-                .collect(Collectors.toList());
-
-        CloudtrustContext ctx = new CloudtrustContext();
-        ctx.setCredentialId(selectedCredentialId);
-        ctx.setCredentials(credentials);
-
-        form.setAttribute("ctContext", ctx);
+        Map<String, AuthenticationExecutionModel> authTypes = new HashMap<>();
+        CredentialTypeCache.getDisplayNames(context.getSession(), context.getRealm(), context.getUser()).forEach((type, displayName) -> {
+            AuthenticationExecutionModel authExec = authExecs.get(displayName);
+            if (authExec != null) {
+                authTypes.put(type, authExec);
+            }
+        });
+        CtFormModel.Builder model = CtFormModel.builder().credentialId(selectedCredentialId);
+        CredentialSnapshot.of(context.getSession(), context.getRealm(), context.getUser()).getCredentialsStream().forEach(c -> {
+            AuthenticationExecutionModel authExec = authTypes.get(c.getType());
+            if (authExec != null) {
+                if (optionUpdater != null) {
+                    optionUpdater.accept(new AlternativeAuthenticator(authExec, c));
+                }
+                model.credential(authExec, c);
+            }
+        });
+        form.setAttribute("ctContext", model.build());
 
         return form;
     }
@@ -0,0 +1,216 @@
+package io.cloudtrust.keycloak;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.theme.Theme;
+import org.keycloak.theme.ThemeProvider;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Themes resolved by {@link ThemeUtils}, shared by the sessions of a Keycloak session factory:
+ * <ul>
+ *     <li>the theme of each (type, name), including the names matching no theme</li>
+ *     <li>the inheritance chain of each theme</li>
+ *     <li>for each resource path, the theme of the chain owning it, including the paths found in no theme</li>
+ *     <li>the messages of each (theme, locale)</li>
+ *     <li>the content of the small resources, within a global size limit</li>
+ * </ul>
+ * Entries are indexed by theme name, so a change of the realm theme uses other entries. The cache is dropped when the
+ * theme provider factories change (redeployment), which is checked at most once per {@link #FACTORIES_CHECK_INTERVAL}, and
+ * is disabled when Keycloak theme caching is disabled (theme.cacheThemes=false, used while developing themes).
+ */
+class ThemeCache {
+    static final int NOT_FOUND = -1;
+    // resource paths come from requests: the number of remembered paths is bounded
+    static final int MAX_RESOURCE_OWNERS = 10000;
+    static final int MAX_CACHED_RESOURCE_SIZE = 256 * 1024;
+    static final long MAX_CACHED_RESOURCES_SIZE = 16L * 1024 * 1024;
+    static final Duration FACTORIES_CHECK_INTERVAL = Duration.ofSeconds(10);
+    private static final Map<KeycloakSessionFactory, ThemeCache> CACHES = new WeakHashMap<>();
+    private static volatile CheckedCache lastChecked;
+    static long factoriesCheckIntervalNanos = FACTORIES_CHECK_INTERVAL.toNanos();
+
+    private final List<?> providerFactories;
+    private final Map<String, Optional<Theme>> themes = new ConcurrentHashMap<>();
+    private final Map<String, List<Theme>> chains = new ConcurrentHashMap<>();
+    private final Map<String, Integer> resourceOwners = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_RESOURCE_OWNERS;
+        }
+    };
+    private final Map<String, Map<String, String>> messages = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, ThemeResource> resources = new LinkedHashMap<>(16, 0.75f, true);
+    private long resourcesSize;
+
+    private ThemeCache(List<?> providerFactories) {
+        this.providerFactories = providerFactories;
+    }
+
+    /**
+     * Gets the cache of a session factory
+     *
+     * @param sessionFactory Keycloak session factory
+     * @return the cache or null if themes must not be cached
+     */
+    static ThemeCache get(KeycloakSessionFactory sessionFactory) {
+        if (sessionFactory == null || !Config.scope("theme").getBoolean("cacheThemes", true)) {
+            return null;
+        }
+        long now = System.nanoTime();
+        CheckedCache checked = lastChecked;
+        if (checked != null && checked.sessionFactory.get() == sessionFactory && now - checked.checkedAt < factoriesCheckIntervalNanos) {
+            return checked.cache;
+        }
+        List<?> factories = sessionFactory.getProviderFactoriesStream(ThemeProvider.class)
+                .collect(Collectors.toList());
+        synchronized (CACHES) {
+            ThemeCache cache = CACHES.get(sessionFactory);
+            if (cache == null || !cache.sameFactories(factories)) {
+                cache = new ThemeCache(factories);
+                CACHES.put(sessionFactory, cache);
+            }
+            lastChecked = new CheckedCache(sessionFactory, cache, now);
+            return cache;
+        }
+    }
+
+    /**
+     * Drops all the cached themes
+     */
+    static void clearAll() {
+        synchronized (CACHES) {
+            CACHES.clear();
+            lastChecked = null;
+        }
+    }
+
+    Theme getTheme(Theme.Type type, String name, ThemeLoader loader) throws IOException {
+        String key = key(type, name);
+        Optional<Theme> theme = themes.get(key);
+        if (theme == null) {
+            theme = Optional.ofNullable(loader.load(type, name));
+            themes.putIfAbsent(key, theme);
+        }
+        return theme.orElse(null);
+    }
+
+    /**
+     * @return the theme followed by its parents
+     */
+    List<Theme> getChain(Theme.Type type, String name, ThemeLoader loader) throws IOException {
+        String key = key(type, name);
+        List<Theme> chain = chains.get(key);
+        if (chain == null) {
+            List<Theme> res = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            Theme theme = getTheme(type, name, loader);
+            // parent names are checked to stop on a cyclic inheritance
+            while (theme != null && !names.contains(theme.getName())) {
+                res.add(theme);
+                names.add(theme.getName());
+                theme = theme.getParentName() == null ? null : getTheme(type, theme.getParentName(), loader);
+            }
+            chain = Collections.unmodifiableList(res);
+            chains.putIfAbsent(key, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * @return the index in the chain of the theme owning the resource, NOT_FOUND if no theme has it, null if unknown
+     */
+    Integer getResourceOwner(Theme.Type type, String name, String path) {
+        synchronized (resourceOwners) {
+            return resourceOwners.get(key(type, name) + '/' + path);
+        }
+    }
+
+    void setResourceOwner(Theme.Type type, String name, String path, int index) {
+        synchronized (resourceOwners) {
+            resourceOwners.put(key(type, name) + '/' + path, index);
+        }
+    }
+
+    ThemeResource getResource(Theme.Type type, String name, String path) {
+        synchronized (resources) {
+            return resources.get(key(type, name) + '/' + path);
+        }
+    }
+
+    void setResource(Theme.Type type, String name, String path, ThemeResource resource) {
+        if (!resource.isInMemory() || resource.getLength() > MAX_CACHED_RESOURCE_SIZE) {
+            return;
+        }
+        synchronized (resources) {
+            ThemeResource previous = resources.put(key(type, name) + '/' + path, resource);
+            resourcesSize += resource.getLength() - (previous == null ? 0 : previous.getLength());
+            Iterator<ThemeResource> it = resources.values().iterator();
+            while (resourcesSize > MAX_CACHED_RESOURCES_SIZE && it.hasNext()) {
+                resourcesSize -= it.next().getLength();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the messages of the theme for the locale, null if they were not loaded yet
+     */
+    Map<String, String> getMessages(Theme theme, Locale locale) {
+        return messages.get(key(theme.getType(), theme.getName()) + '/' + locale.toLanguageTag());
+    }
+
+    void setMessages(Theme theme, Locale locale, Map<String, String> bundle) {
+        messages.put(key(theme.getType(), theme.getName()) + '/' + locale.toLanguageTag(), bundle);
+    }
+
+    private boolean sameFactories(List<?> factories) {
+        if (factories.size() != providerFactories.size()) {
+            return false;
+        }
+        for (int i = 0; i < factories.size(); i++) {
+            if (factories.get(i) != providerFactories.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String key(Theme.Type type, String name) {
+        return type.name() + '/' + name;
+    }
+
+    /**
+     * Cache returned by the last lookup, reused without comparing the provider factories until the check interval elapsed
+     */
+    private static final class CheckedCache {
+        private final WeakReference<KeycloakSessionFactory> sessionFactory;
+        private final ThemeCache cache;
+        private final long checkedAt;
+
+        private CheckedCache(KeycloakSessionFactory sessionFactory, ThemeCache cache, long checkedAt) {
+            this.sessionFactory = new WeakReference<>(sessionFactory);
+            this.cache = cache;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    @FunctionalInterface
+    interface ThemeLoader {
+        Theme load(Theme.Type type, String name) throws IOException;
+    }
+}
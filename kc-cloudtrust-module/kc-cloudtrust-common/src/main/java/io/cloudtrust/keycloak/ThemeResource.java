@@ -0,0 +1,268 @@
+package io.cloudtrust.keycloak;
+
+import org.keycloak.models.KeycloakSession;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Content of a theme resource. Small resources are loaded once and served from memory with a strong ETag, computed
+ * when they are loaded: conditional requests (If-None-Match) are answered with 304 and single byte ranges (Range,
+ * If-Range) with 206, without reading the theme again. Other resources are streamed from the theme, without ETag nor
+ * range support: themes give no metadata to derive a validator from without reading the whole content.
+ */
+public final class ThemeResource {
+    static final String IF_RANGE = "If-Range";
+    static final String RANGE = "Range";
+    static final String ACCEPT_RANGES = "Accept-Ranges";
+    static final String CONTENT_RANGE = "Content-Range";
+    private static final String BYTES_UNIT = "bytes";
+
+    private final byte[] content;
+    private final InputStream stream;
+    private final String etag;
+    private final String contentType;
+
+    ThemeResource(String path, byte[] content) {
+        this.content = content;
+        this.stream = null;
+        this.etag = computeEtag(content);
+        this.contentType = guessContentType(path);
+    }
+
+    private ThemeResource(String path, InputStream stream) {
+        this.content = null;
+        this.stream = stream;
+        this.etag = null;
+        this.contentType = guessContentType(path);
+    }
+
+    /**
+     * Creates a resource streamed from the theme, which can be served only once
+     *
+     * @param path   resource path, used to guess its content type
+     * @param stream resource content, closed once served
+     * @return the resource
+     */
+    static ThemeResource stream(String path, InputStream stream) {
+        return new ThemeResource(path, stream);
+    }
+
+    /**
+     * Reads a resource in memory if it is not larger than the given size, otherwise streams it
+     *
+     * @param path    resource path, used to guess its content type
+     * @param stream  resource content, closed once read or served
+     * @param maxSize maximum size of a resource loaded in memory
+     * @return the resource
+     * @throws IOException if the resource cannot be read
+     */
+    static ThemeResource read(String path, InputStream stream, int maxSize) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            while ((read = stream.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+                if (content.size() > maxSize) {
+                    // Too large: what was read is served before the rest of the stream
+                    return stream(path, new SequenceInputStream(new ByteArrayInputStream(content.toByteArray()), stream));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+        stream.close();
+        return new ThemeResource(path, content.toByteArray());
+    }
+
+    /**
+     * Serves a resource of the login theme of the current realm, see {@link ThemeUtils#getResourceImage(KeycloakSession, String)}
+     *
+     * @param session The Keycloak session
+     * @param path    The path to the resource
+     * @return the response, 404 if the resource does not exist
+     * @throws IOException if the resource cannot be read
+     */
+    public static Response serve(KeycloakSession session, String path) throws IOException {
+        ThemeResource resource = ThemeUtils.getResourceImage(session, path);
+        if (resource == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return resource.toResponse(session.getContext().getRequestHeaders());
+    }
+
+    /**
+     * Builds the response serving this resource
+     *
+     * @param headers request headers
+     * @return the response: 200, 206 for a byte range, 304 if the client has the current version or 416 for an
+     * unsatisfiable range. A streamed resource is always served whole with 200.
+     */
+    public Response toResponse(HttpHeaders headers) {
+        return toResponse(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), headers.getHeaderString(RANGE),
+                headers.getHeaderString(IF_RANGE));
+    }
+
+    Response toResponse(String ifNoneMatch, String range, String ifRange) {
+        if (stream != null) {
+            StreamingOutput output = out -> {
+                try (InputStream in = stream) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            };
+            return Response.ok(output, contentType).build();
+        }
+        if (ifNoneMatch != null && matches(ifNoneMatch)) {
+            return Response.notModified(new EntityTag(etagValue())).build();
+        }
+        if (range != null && (ifRange == null || etag.equals(ifRange.trim()))) {
+            long[] bounds = parseRange(range, content.length);
+            if (bounds == null) {
+                return Response.status(416)
+                        .header(CONTENT_RANGE, BYTES_UNIT + " */" + content.length)
+                        .build();
+            }
+            if (bounds.length == 2) {
+                int start = (int) bounds[0];
+                int length = (int) (bounds[1] - bounds[0] + 1);
+                StreamingOutput slice = output -> output.write(content, start, length);
+                return Response.status(206)
+                        .entity(slice)
+                        .type(contentType)
+                        .tag(new EntityTag(etagValue()))
+                        .header(ACCEPT_RANGES, BYTES_UNIT)
+                        .header(CONTENT_RANGE, BYTES_UNIT + " " + bounds[0] + "-" + bounds[1] + "/" + content.length)
+                        .header(HttpHeaders.CONTENT_LENGTH, length)
+                        .build();
+            }
+        }
+        return Response.ok(content, contentType)
+                .tag(new EntityTag(etagValue()))
+                .header(ACCEPT_RANGES, BYTES_UNIT)
+                .build();
+    }
+
+    /**
+     * @return true if the content is in memory, false if it is streamed from the theme
+     */
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    /**
+     * @return the strong ETag, null if the resource is streamed
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the length of the content, -1 if the resource is streamed
+     */
+    public int getLength() {
+        return content == null ? -1 : content.length;
+    }
+
+    /**
+     * @return a read-only view of the content, null if the resource is streamed
+     */
+    public ByteBuffer getContent() {
+        return content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    private String etagValue() {
+        return etag.substring(1, etag.length() - 1);
+    }
+
+    private boolean matches(String ifNoneMatch) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses the weak comparison
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range
+     *
+     * @return the first and last positions of the range, an empty array if the header is not supported (the whole
+     * resource is served) or null if the range is not satisfiable
+     */
+    static long[] parseRange(String range, long length) {
+        String value = range.trim();
+        if (!value.startsWith(BYTES_UNIT + "=") || value.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        value = value.substring(BYTES_UNIT.length() + 1).trim();
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String first = value.substring(0, dash).trim();
+            String last = value.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start < 0 || start >= length || end < start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String guessContentType(String path) {
+        String type = URLConnection.guessContentTypeFromName(path);
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    private static String computeEtag(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest) + '"';
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
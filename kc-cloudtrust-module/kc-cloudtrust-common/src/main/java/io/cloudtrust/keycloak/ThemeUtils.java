@@ -9,7 +9,12 @@ import org.keycloak.theme.ThemeProvider;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -50,6 +55,14 @@ public class ThemeUtils {
      * @throws IOException
      */
     public static Theme findThemeByName(KeycloakSession session, Theme.Type type, String name) throws IOException {
+        ThemeCache cache = ThemeCache.get(session.getKeycloakSessionFactory());
+        if (cache != null) {
+            return cache.getTheme(type, name, (t, n) -> lookupTheme(session, t, n));
+        }
+        return lookupTheme(session, type, name);
+    }
+
+    private static Theme lookupTheme(KeycloakSession session, Theme.Type type, String name) throws IOException {
         Set<ThemeProvider> providers = session.getAllProviders(ThemeProvider.class);
         // We iterate through all the theme providers
         for (ThemeProvider provider : providers) {
@@ -70,6 +83,10 @@ public class ThemeUtils {
      * @throws IOException
      */
     public static InputStream getStreamToResourceImage(KeycloakSession session, String path) throws IOException {
+        ThemeCache cache = ThemeCache.get(session.getKeycloakSessionFactory());
+        if (cache != null) {
+            return getCachedStreamToResource(session, cache, Theme.Type.LOGIN, session.getContext().getRealm().getLoginTheme(), path);
+        }
         // We grab the current theme
         Theme theme = findTheme(session, Theme.Type.LOGIN);
         while (theme != null) {
@@ -86,10 +103,98 @@ public class ThemeUtils {
         return null;
     }
 
+    private static InputStream getCachedStreamToResource(KeycloakSession session, ThemeCache cache, Theme.Type type, String name, String path) throws IOException {
+        List<Theme> chain = cache.getChain(type, name, (t, n) -> lookupTheme(session, t, n));
+        Integer owner = cache.getResourceOwner(type, name, path);
+        if (owner != null && owner < chain.size()) {
+            if (owner == ThemeCache.NOT_FOUND) {
+                return null;
+            }
+            InputStream stream = chain.get(owner).getResourceAsStream(path);
+            if (stream != null) {
+                return stream;
+            }
+        }
+        // Unknown or moved resource: we look for it in the theme then in its parents
+        for (int i = 0; i < chain.size(); i++) {
+            InputStream stream = chain.get(i).getResourceAsStream(path);
+            if (stream != null) {
+                cache.setResourceOwner(type, name, path, i);
+                return stream;
+            }
+        }
+        cache.setResourceOwner(type, name, path, ThemeCache.NOT_FOUND);
+        return null;
+    }
+
+    /**
+     * Gets a resource in this realm's theme. When themes are cached, small resources are kept in memory, so that they
+     * are not read again from the theme on each request. Other resources are streamed from the theme.
+     *
+     * @param path The path to the resource
+     * @return The resource or null if it does not exist
+     * @throws IOException if the resource cannot be read
+     */
+    public static ThemeResource getResourceImage(KeycloakSession session, String path) throws IOException {
+        ThemeCache cache = ThemeCache.get(session.getKeycloakSessionFactory());
+        if (cache == null) {
+            InputStream stream = getStreamToResourceImage(session, path);
+            return stream == null ? null : ThemeResource.stream(path, stream);
+        }
+        String name = session.getContext().getRealm().getLoginTheme();
+        ThemeResource resource = cache.getResource(Theme.Type.LOGIN, name, path);
+        if (resource == null) {
+            InputStream stream = getCachedStreamToResource(session, cache, Theme.Type.LOGIN, name, path);
+            if (stream == null) {
+                return null;
+            }
+            resource = ThemeResource.read(path, stream, ThemeCache.MAX_CACHED_RESOURCE_SIZE);
+            if (resource.isInMemory()) {
+                cache.setResource(Theme.Type.LOGIN, name, path, resource);
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Drops the themes, resources and messages cached by this class, for instance after themes were added to a folder
+     */
+    public static void clearThemeCache() {
+        ThemeCache.clearAll();
+    }
+
     /**
      * Load message stored in the theme
      */
     public static String loadMessageFromTheme(KeycloakSession session, UserModel user, String messageId) {
+        Map<String, String> messages = loadMessagesFromTheme(session, user);
+        return messages == null ? null : messages.get(messageId);
+    }
+
+    /**
+     * Load several messages stored in the theme
+     *
+     * @return the messages found, indexed by message id
+     */
+    public static Map<String, String> loadMessagesFromTheme(KeycloakSession session, UserModel user, Collection<String> messageIds) {
+        Map<String, String> messages = loadMessagesFromTheme(session, user);
+        Map<String, String> res = new HashMap<>();
+        if (messages != null) {
+            for (String messageId : messageIds) {
+                String message = messages.get(messageId);
+                if (message != null) {
+                    res.put(messageId, message);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Gets the messages of the login theme in the locale of the user. Messages are loaded once per (theme, locale), a
+     * missing message id does not reload them.
+     */
+    private static Map<String, String> loadMessagesFromTheme(KeycloakSession session, UserModel user) {
         Theme theme;
         try {
             theme = session.theme().getTheme(Theme.Type.LOGIN);
@@ -99,8 +204,30 @@ public class ThemeUtils {
         }
 
         Locale locale = user != null ? session.getContext().resolveLocale(user) : Locale.ENGLISH;
-        Properties messagesBundle = handleThemeResources(theme, locale);
-        return messagesBundle.getProperty(messageId);
+        ThemeCache cache = ThemeCache.get(session.getKeycloakSessionFactory());
+        if (cache == null) {
+            return toMap(handleThemeResources(theme, locale));
+        }
+        Map<String, String> messages = cache.getMessages(theme, locale);
+        if (messages == null) {
+            try {
+                messages = toMap(theme.getMessages(locale));
+                cache.setMessages(theme, locale, messages);
+            } catch (IOException e) {
+                // not cached: messages are loaded again on next lookup
+                LOG.warn("Failed to load messages", e);
+                messages = Collections.emptyMap();
+            }
+        }
+        return messages;
+    }
+
+    private static Map<String, String> toMap(Properties properties) {
+        Map<String, String> res = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            res.put(name, properties.getProperty(name));
+        }
+        return Collections.unmodifiableMap(res);
     }
 
     /**
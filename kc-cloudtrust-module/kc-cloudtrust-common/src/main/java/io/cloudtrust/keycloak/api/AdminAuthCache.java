@@ -0,0 +1,267 @@
+package io.cloudtrust.keycloak.api;
+
+import org.jboss.logging.Logger;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.managers.AuthenticationManager;
+import org.keycloak.services.resources.admin.AdminAuth;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache of the bearer tokens already verified by {@link ApiResource#authenticateRealmAdminRequest()}, indexed
+ * by the SHA-256 digest of the token. Only identifiers are kept: the realm, user and client models are looked up again
+ * in the session of each request, and a token is verified again when one of them disappeared, the user or the client
+ * was disabled or the user session of the token is no longer valid (logout, revocation, expiration), on any node of
+ * the cluster.
+ * An entry lives at most for the configured time to live and never beyond the expiration of its token.
+ * Entries are also removed eagerly on logout and revocation by {@link AdminAuthCacheInvalidator} when the extension
+ * registers {@link AdminAuthCacheInvalidatorFactory} and its event listener is enabled in the realm.
+ */
+public final class AdminAuthCache {
+    private static final Logger LOG = Logger.getLogger(AdminAuthCache.class);
+
+    static final String SIZE_ENV_VAR_NAME = "CT_ADMIN_AUTH_CACHE_SIZE";
+    static final String TTL_ENV_VAR_NAME = "CT_ADMIN_AUTH_CACHE_TTL";
+    private static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(AdminAuthCache::newDigest);
+    private static final AdminAuthCache INSTANCE = fromEnvironment();
+
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Map<ByteBuffer, VerifiedToken> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxSize maximum number of tokens
+     * @param ttl     maximum time to live of a verified token
+     */
+    public AdminAuthCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::nanoTime);
+    }
+
+    AdminAuthCache(int maxSize, Duration ttl, LongSupplier clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<ByteBuffer, VerifiedToken>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, VerifiedToken> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cache shared by the API resources and {@link AdminAuthCacheInvalidator}, null if it is not configured
+     * (see {@link #fromEnvironment()})
+     */
+    public static AdminAuthCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the cache configured by the CT_ADMIN_AUTH_CACHE_SIZE (maximum number of tokens) and
+     * CT_ADMIN_AUTH_CACHE_TTL (time to live in seconds, 30 by default) environment variables
+     *
+     * @return the cache or null if CT_ADMIN_AUTH_CACHE_SIZE is not set, is 0 or if the configuration is invalid
+     */
+    static AdminAuthCache fromEnvironment() {
+        String size = System.getenv(SIZE_ENV_VAR_NAME);
+        String ttl = System.getenv(TTL_ENV_VAR_NAME);
+        try {
+            if (size == null || size.isEmpty() || Integer.parseInt(size.trim()) <= 0) {
+                return null;
+            }
+            return new AdminAuthCache(Integer.parseInt(size.trim()), ttl == null || ttl.isEmpty() ? DEFAULT_TTL : Duration.ofSeconds(Long.parseLong(ttl.trim())));
+        } catch (NumberFormatException e) {
+            LOG.warnf("Invalid %s (%s) or %s (%s), admin token cache disabled", SIZE_ENV_VAR_NAME, size, TTL_ENV_VAR_NAME, ttl);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the authentication of a token previously verified
+     *
+     * @param session     Keycloak session of the current request
+     * @param tokenString bearer token
+     * @return the authentication or null if the token has to be verified
+     */
+    public AdminAuth get(KeycloakSession session, String tokenString) {
+        ByteBuffer key = digest(tokenString);
+        VerifiedToken entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && (clock.getAsLong() - entry.expiration >= 0 || !entry.token.isActive())) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        AdminAuth auth = entry == null ? null : entry.resolve(session);
+        if (auth == null) {
+            if (entry != null) {
+                remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return auth;
+    }
+
+    /**
+     * Stores the authentication of a verified token
+     *
+     * @param tokenString bearer token
+     * @param auth        authentication resulting from the verification of the token
+     */
+    public void put(String tokenString, AdminAuth auth) {
+        AccessToken token = auth.getToken();
+        long ttl = ttlNanos;
+        if (token.getExp() != null) {
+            ttl = Math.min(ttl, TimeUnit.SECONDS.toNanos(token.getExp() - Time.currentTime()));
+        }
+        if (ttl <= 0) {
+            return;
+        }
+        VerifiedToken entry = new VerifiedToken(auth, clock.getAsLong() + ttl);
+        ByteBuffer key = digest(tokenString);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes the tokens issued for a user session, for instance on logout
+     *
+     * @param sessionId user session identifier
+     */
+    public void invalidateSession(String sessionId) {
+        if (sessionId != null) {
+            removeIf(e -> sessionId.equals(e.token.getSessionState()));
+        }
+    }
+
+    /**
+     * Removes the tokens of a user, for instance when the user is updated or deleted
+     *
+     * @param userId user identifier
+     */
+    public void invalidateUser(String userId) {
+        if (userId != null) {
+            removeIf(e -> userId.equals(e.userId));
+        }
+    }
+
+    /**
+     * Removes the tokens issued by a realm, for instance when all its sessions are logged out
+     *
+     * @param realmId realm identifier
+     */
+    public void invalidateRealm(String realmId) {
+        if (realmId != null) {
+            removeIf(e -> realmId.equals(e.realmId));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void remove(ByteBuffer key, VerifiedToken entry) {
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private void removeIf(Predicate<VerifiedToken> predicate) {
+        synchronized (entries) {
+            entries.values().removeIf(predicate);
+        }
+    }
+
+    private static ByteBuffer digest(String tokenString) {
+        return ByteBuffer.wrap(SHA_256.get().digest(tokenString.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class VerifiedToken {
+        private final String realmId;
+        private final String userId;
+        private final String clientId;
+        private final AccessToken token;
+        private final long expiration;
+
+        private VerifiedToken(AdminAuth auth, long expiration) {
+            this.realmId = auth.getRealm().getId();
+            this.userId = auth.getUser().getId();
+            this.clientId = auth.getClient().getId();
+            this.token = auth.getToken();
+            this.expiration = expiration;
+        }
+
+        private AdminAuth resolve(KeycloakSession session) {
+            RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null || !realm.isEnabled()) {
+                return null;
+            }
+            UserSessionModel userSession = token.getSessionState() == null ? null : session.sessions().getUserSession(realm, token.getSessionState());
+            if (!AuthenticationManager.isSessionValid(realm, userSession)) {
+                return null;
+            }
+            UserModel user = session.users().getUserById(realm, userId);
+            if (user == null || !user.isEnabled()) {
+                return null;
+            }
+            ClientModel client = realm.getClientById(clientId);
+            if (client == null || !client.isEnabled() || !Objects.equals(client.getClientId(), token.getIssuedFor())) {
+                return null;
+            }
+            return new AdminAuth(realm, token, user, client);
+        }
+    }
+}
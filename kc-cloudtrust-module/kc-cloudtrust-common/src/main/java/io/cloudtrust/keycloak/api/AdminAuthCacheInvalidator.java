@@ -0,0 +1,77 @@
+package io.cloudtrust.keycloak.api;
+
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+
+/**
+ * Event listener removing from an {@link AdminAuthCache} the tokens which may no longer be valid: tokens of a session
+ * which logged out, of a user whose grants were revoked or who was updated or deleted by an administrator, and all the
+ * tokens of a realm whose sessions were logged out or whose tokens were revoked.
+ * The listener is created by {@link AdminAuthCacheInvalidatorFactory} and does nothing when the cache is not configured. Admin events are only received by the listener when they are enabled in the realm.
+ */
+public class AdminAuthCacheInvalidator implements EventListenerProvider {
+    private static final String USERS_PATH = "users/";
+    private static final String SESSIONS_PATH = "sessions/";
+
+    private final AdminAuthCache cache;
+
+    /**
+     * @param cache cache to invalidate, may be null
+     */
+    public AdminAuthCacheInvalidator(AdminAuthCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+        if (cache == null) {
+            return;
+        }
+        switch (event.getType()) {
+            case LOGOUT:
+                cache.invalidateSession(event.getSessionId());
+                break;
+            case REVOKE_GRANT:
+            case DELETE_ACCOUNT:
+                cache.invalidateUser(event.getUserId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onEvent(AdminEvent event, boolean includeRepresentation) {
+        if (cache == null || event.getResourceType() == null || event.getOperationType() == OperationType.CREATE) {
+            return;
+        }
+        switch (event.getResourceType()) {
+            case REALM:
+                cache.invalidateRealm(event.getRealmId());
+                break;
+            case USER:
+                cache.invalidateUser(pathElement(event.getResourcePath(), USERS_PATH));
+                break;
+            case USER_SESSION:
+                cache.invalidateSession(pathElement(event.getResourcePath(), SESSIONS_PATH));
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+
+    private static String pathElement(String resourcePath, String prefix) {
+        if (resourcePath == null || !resourcePath.startsWith(prefix)) {
+            return null;
+        }
+        int end = resourcePath.indexOf('/', prefix.length());
+        return end < 0 ? resourcePath.substring(prefix.length()) : resourcePath.substring(prefix.length(), end);
+    }
+}
@@ -0,0 +1,43 @@
+package io.cloudtrust.keycloak.api;
+
+import org.keycloak.Config;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Creates the {@link AdminAuthCacheInvalidator} of the cache shared by the API resources, see {@link AdminAuthCache#getInstance()}.
+ * This library is bundled into several extensions, so it does not register the factory itself: the extension serving
+ * the API resources registers it by listing this class in its
+ * META-INF/services/org.keycloak.events.EventListenerProviderFactory file, then the "ct-admin-auth-cache" event
+ * listener is enabled in the realms.
+ */
+public class AdminAuthCacheInvalidatorFactory implements EventListenerProviderFactory {
+    public static final String PROVIDER_ID = "ct-admin-auth-cache";
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new AdminAuthCacheInvalidator(AdminAuthCache.getInstance());
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        // Nothing to initialize
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // Nothing to initialize
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+}
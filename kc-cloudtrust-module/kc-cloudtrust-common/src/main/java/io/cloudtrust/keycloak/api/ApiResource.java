@@ -1,5 +1,6 @@
 package io.cloudtrust.keycloak.api;
 
+import io.cloudtrust.json.JsonUtil;
 import org.jboss.logging.Logger;
 import org.jboss.resteasy.spi.HttpRequest;
 import org.jboss.resteasy.spi.HttpResponse;
@@ -14,17 +15,17 @@ import org.keycloak.representations.AccessToken;
 import org.keycloak.services.managers.AppAuthManager;
 import org.keycloak.services.managers.AppAuthManager.BearerTokenAuthenticator;
 import org.keycloak.services.managers.AuthenticationManager;
-import org.keycloak.services.managers.RealmManager;
 import org.keycloak.services.resources.Cors;
 import org.keycloak.services.resources.admin.AdminAuth;
-import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
-import org.keycloak.services.resources.admin.permissions.AdminPermissions;
 
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.stream.Stream;
 
 public class ApiResource {
     private static final Logger LOG = Logger.getLogger(ApiResource.class);
@@ -42,6 +43,8 @@ public class ApiResource {
 
     protected AppAuthManager authManager;
 
+    private ResolutionContext resolution;
+
     public ApiResource(KeycloakSession session) {
         this.session = session;
         this.authManager = new AppAuthManager();
@@ -62,6 +65,14 @@ public class ApiResource {
         if (tokenString == null) {
             throw new NotAuthorizedException("Bearer");
         }
+        AdminAuthCache cache = getAdminAuthCache();
+        if (cache != null) {
+            AdminAuth cached = cache.get(session, tokenString);
+            if (cached != null) {
+                session.getContext().setRealm(cached.getRealm());
+                return cached;
+            }
+        }
         AccessToken token;
         try {
             JWSInput input = new JWSInput(tokenString);
@@ -70,8 +81,7 @@ public class ApiResource {
             throw new NotAuthorizedException("Bearer token format error");
         }
         String realmName = token.getIssuer().substring(token.getIssuer().lastIndexOf('/') + 1);
-        RealmManager realmManager = new RealmManager(session);
-        RealmModel realm = realmManager.getRealmByName(realmName);
+        RealmModel realm = resolution().getRealmByName(realmName);
         if (realm == null) {
             throw new NotAuthorizedException("Unknown realm in token");
         }
@@ -91,7 +101,21 @@ public class ApiResource {
             throw new NotFoundException("Could not find client for authorization");
         }
 
-        return new AdminAuth(realm, authResult.getToken(), authResult.getUser(), client);
+        AdminAuth auth = new AdminAuth(realm, authResult.getToken(), authResult.getUser(), client);
+        if (cache != null) {
+            cache.put(tokenString, auth);
+        }
+        return auth;
+    }
+
+    /**
+     * Gets the cache of the verified tokens. The default cache is configured by environment variables
+     * (see {@link AdminAuthCache#fromEnvironment()}) and shared by all resources.
+     *
+     * @return the cache or null if tokens are verified on each request
+     */
+    protected AdminAuthCache getAdminAuthCache() {
+        return AdminAuthCache.getInstance();
     }
 
     protected AdminAuth auth() {
@@ -110,12 +134,61 @@ public class ApiResource {
         return auth;
     }
 
+    /**
+     * Gets the models already resolved while processing the current request
+     *
+     * @return the resolution context of the request
+     */
+    protected ResolutionContext resolution() {
+        if (resolution == null) {
+            resolution = new ResolutionContext(session);
+        }
+        return resolution;
+    }
+
+    /**
+     * Builds a response writing entities as NDJSON while they are read from the stream
+     *
+     * @param type  type of the entities
+     * @param items entities, typically mapped from a Keycloak model stream
+     * @return the response
+     */
+    protected Response streamNdjson(Class<?> type, Stream<?> items) {
+        return Response.ok(JsonStreaming.ndjson(JsonUtil.writerFor(type), items), JsonStreaming.APPLICATION_NDJSON).build();
+    }
+
+    /**
+     * Builds a response writing entities as a JSON array while they are read from the stream
+     *
+     * @param type  type of the entities
+     * @param items entities, typically mapped from a Keycloak model stream
+     * @return the response
+     */
+    protected Response streamJsonArray(Class<?> type, Stream<?> items) {
+        return Response.ok(JsonStreaming.jsonArray(JsonUtil.writerFor(type), items), MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Creates a stream loading the entities page by page while the response is written, for instance
+     * (first, max) -> session.users().getUsersStream(realm, first, max).map(this::toRepresentation)
+     *
+     * @param loader   page loader
+     * @param first    index of the first entity, null to start with the first one
+     * @param max      maximum number of entities, null for no limit
+     * @param pageSize number of entities loaded at once
+     * @param <T>      type of the entities
+     * @return the entities
+     */
+    protected <T> Stream<T> paginate(JsonStreaming.PageLoader<T> loader, Integer first, Integer max, int pageSize) {
+        return JsonStreaming.paginate(loader, first == null ? 0 : first, max == null ? -1 : max, pageSize);
+    }
+
     protected String getPathParameter(String name) {
         return session.getContext().getUri().getPathParameters().getFirst(name);
     }
 
     protected RealmModel getRealmFromURIPath() {
-        RealmModel realm = session.realms().getRealmByName(getPathParameter("realm"));
+        RealmModel realm = resolution().getRealmByName(getPathParameter("realm"));
         if (realm == null) {
             throw new NotFoundException("notFound.realm");
         }
@@ -124,14 +197,14 @@ public class ApiResource {
     }
 
     protected RealmModel getRealm(AdminAuth auth, String realmName) {
-        RealmManager realmManager = new RealmManager(session);
-        RealmModel realm = realmManager.getRealmByName(realmName);
+        ResolutionContext resolution = resolution();
+        RealmModel realm = resolution.getRealmByName(realmName);
         if (realm == null) {
             LOG.infof("Can't find realm %s", realmName);
             throw new NotFoundException("notFound.realm");
         }
 
-        if (!auth.getRealm().equals(realmManager.getKeycloakAdminstrationRealm()) && !auth.getRealm().equals(realm)) {
+        if (!auth.getRealm().equals(resolution.getAdministrationRealm()) && !auth.getRealm().equals(realm)) {
             throw new ForbiddenException();
         }
 
@@ -139,15 +212,14 @@ public class ApiResource {
     }
 
     protected UserModel getUser(RealmModel realm, String userId, AdminAuth auth) {
-        UserModel user = session.userStorageManager().getUserById(realm, userId);
+        UserModel user = resolution().getUserById(realm, userId);
         if (user == null) {
             LOG.infof("Can't find user %s", userId);
             throw new NotFoundException("notFound.user");
         }
 
         if (auth != null) {
-            AdminPermissionEvaluator realmAuth = AdminPermissions.evaluator(session, realm, auth);
-            realmAuth.users().requireManage(user);
+            resolution().getPermissionEvaluator(realm, auth).users().requireManage(user);
         }
 
         return user;
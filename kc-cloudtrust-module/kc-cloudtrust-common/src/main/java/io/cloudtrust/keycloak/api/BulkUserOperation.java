@@ -0,0 +1,25 @@
+package io.cloudtrust.keycloak.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Operation applied to each user of a bulk request, see {@link BulkUserResource}
+ */
+@FunctionalInterface
+public interface BulkUserOperation {
+    /**
+     * Applies the operation to a user the caller is allowed to manage. The operation runs in the transaction of its batch
+     * and must use the given session and models, not the ones of the request.
+     *
+     * @param session session of the batch
+     * @param realm   realm of the user
+     * @param user    user
+     * @param item    item of the request: either the user identifier as a JSON string or a JSON object with an "id" field
+     *                and the parameters of the operation
+     * @return an optional result reported in the status of the item, may be null
+     */
+    Object apply(KeycloakSession session, RealmModel realm, UserModel user, JsonNode item);
+}
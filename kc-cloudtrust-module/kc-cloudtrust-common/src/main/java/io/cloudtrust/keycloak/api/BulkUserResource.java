@@ -0,0 +1,179 @@
+package io.cloudtrust.keycloak.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
+import io.cloudtrust.keycloak.api.BulkUserResult.Status;
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.UserPermissionEvaluator;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class of the resources applying an operation to many users in a single request.
+ * The caller is authenticated once, the request body is either a JSON array or a NDJSON stream of items (user
+ * identifiers or JSON objects with an "id" field) and the status of each item is streamed back as a NDJSON line.
+ * Items are processed by batches: users of a batch are looked up first, then their permissions are checked together
+ * (a caller allowed to manage all the users of the realm is not checked user by user), then the operation is applied.
+ * Each batch runs in its own transaction and its statuses are written once the transaction is committed. A failing
+ * item does not stop the processing of the others, but when it leaves the transaction of its batch rollback-only, the
+ * items of the batch reported as successful are reported as {@link Status#ERROR} since their changes were rolled back.
+ */
+public abstract class BulkUserResource extends ApiResource {
+    private static final Logger LOG = Logger.getLogger(BulkUserResource.class);
+    private static final ObjectWriter RESULT_WRITER = JsonUtil.writerFor(BulkUserResult.class);
+
+    public static final String APPLICATION_NDJSON = JsonStreaming.APPLICATION_NDJSON;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    protected BulkUserResource(KeycloakSession session) {
+        super(session);
+    }
+
+    /**
+     * @return number of users looked up and checked together
+     */
+    protected int getBatchSize() {
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Authenticates the caller and applies an operation to the users listed in the request body
+     *
+     * @param realmName realm of the users
+     * @param body      request body
+     * @param operation operation applied to each user
+     * @return the NDJSON response streaming the status of each item
+     */
+    protected Response bulk(String realmName, InputStream body, BulkUserOperation operation) {
+        return Response.ok(bulkOutput(realmName, body, operation), APPLICATION_NDJSON).build();
+    }
+
+    protected StreamingOutput bulkOutput(String realmName, InputStream body, BulkUserOperation operation) {
+        AdminAuth auth = auth();
+        RealmModel realm = getRealm(auth, realmName);
+        UserPermissionEvaluator permissions = resolution().getPermissionEvaluator(realm, auth).users();
+        MappingIterator<JsonNode> items;
+        try {
+            items = JsonUtil.readerFor(JsonNode.class).readValues(body);
+        } catch (IOException e) {
+            throw new BadRequestException("Invalid bulk request body", e);
+        }
+        return output -> process(realm, permissions, items, operation, output);
+    }
+
+    private void process(RealmModel realm, UserPermissionEvaluator permissions, MappingIterator<JsonNode> items,
+                         BulkUserOperation operation, OutputStream output) throws IOException {
+        boolean manageAll = permissions.canManage();
+        List<JsonNode> batch = new ArrayList<>(getBatchSize());
+        while (true) {
+            try {
+                if (!items.hasNextValue()) {
+                    break;
+                }
+                batch.add(items.nextValue());
+            } catch (IOException | RuntimeException e) {
+                // Malformed body: report the items read so far then the failure
+                processBatch(realm, permissions, manageAll, batch, operation, output);
+                write(output, BulkUserResult.failure(null, Status.INVALID, "Invalid bulk request body"));
+                return;
+            }
+            if (batch.size() == getBatchSize()) {
+                processBatch(realm, permissions, manageAll, batch, operation, output);
+                batch.clear();
+            }
+        }
+        processBatch(realm, permissions, manageAll, batch, operation, output);
+    }
+
+    private void processBatch(RealmModel realm, UserPermissionEvaluator permissions, boolean manageAll, List<JsonNode> batch,
+                              BulkUserOperation operation, OutputStream output) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<BulkUserResult> results = new ArrayList<>(batch.size());
+        AtomicBoolean rolledBack = new AtomicBoolean();
+        try {
+            KeycloakModelUtils.runJobInTransaction(session.getKeycloakSessionFactory(), batchSession -> {
+                results.addAll(applyBatch(batchSession, batchSession.realms().getRealm(realm.getId()), permissions, manageAll, batch, operation));
+                rolledBack.set(batchSession.getTransactionManager().getRollbackOnly());
+            });
+        } catch (RuntimeException e) {
+            LOG.warnf(e, "Bulk operation batch failed in realm %s", realm.getName());
+            rolledBack.set(true);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            BulkUserResult result = i < results.size() ? results.get(i) : null;
+            if (result == null || rolledBack.get() && result.getStatus() == Status.OK) {
+                result = BulkUserResult.failure(result == null ? getUserId(batch.get(i)) : result.getId(), Status.ERROR, "rolledBack");
+            }
+            write(output, result);
+        }
+        output.flush();
+    }
+
+    private List<BulkUserResult> applyBatch(KeycloakSession batchSession, RealmModel realm, UserPermissionEvaluator permissions,
+                                            boolean manageAll, List<JsonNode> batch, BulkUserOperation operation) {
+        int size = batch.size();
+        String[] ids = new String[size];
+        UserModel[] users = new UserModel[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = getUserId(batch.get(i));
+            users[i] = ids[i] == null ? null : batchSession.userStorageManager().getUserById(realm, ids[i]);
+        }
+        List<BulkUserResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == null) {
+                results.add(BulkUserResult.failure(null, Status.INVALID, "Missing user id"));
+            } else if (users[i] == null) {
+                results.add(BulkUserResult.failure(ids[i], Status.NOT_FOUND, "notFound.user"));
+            } else if (!manageAll && !permissions.canManage(users[i])) {
+                results.add(BulkUserResult.failure(ids[i], Status.FORBIDDEN, null));
+            } else {
+                results.add(apply(batchSession, realm, users[i], batch.get(i), operation));
+            }
+        }
+        return results;
+    }
+
+    private BulkUserResult apply(KeycloakSession batchSession, RealmModel realm, UserModel user, JsonNode item, BulkUserOperation operation) {
+        try {
+            return BulkUserResult.ok(user.getId(), operation.apply(batchSession, realm, user, item));
+        } catch (WebApplicationException e) {
+            int status = e.getResponse().getStatus();
+            Status itemStatus = status == 403 ? Status.FORBIDDEN : status == 404 ? Status.NOT_FOUND : status == 400 ? Status.INVALID : Status.ERROR;
+            return BulkUserResult.failure(user.getId(), itemStatus, e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.warnf(e, "Bulk operation failed for user %s", user.getId());
+            return BulkUserResult.failure(user.getId(), Status.ERROR, e.getMessage());
+        }
+    }
+
+    private static String getUserId(JsonNode item) {
+        if (item.isTextual()) {
+            return item.asText();
+        }
+        JsonNode id = item.get("id");
+        return id != null && id.isTextual() ? id.asText() : null;
+    }
+
+    private static void write(OutputStream output, BulkUserResult result) throws IOException {
+        output.write(RESULT_WRITER.writeValueAsBytes(result));
+        output.write('\n');
+    }
+}
@@ -0,0 +1,49 @@
+package io.cloudtrust.keycloak.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Status of an item of a bulk request, written as a line of the NDJSON response
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkUserResult {
+    public enum Status {
+        OK, INVALID, NOT_FOUND, FORBIDDEN, ERROR
+    }
+
+    private final String id;
+    private final Status status;
+    private final String error;
+    private final Object result;
+
+    public BulkUserResult(String id, Status status, String error, Object result) {
+        this.id = id;
+        this.status = status;
+        this.error = error;
+        this.result = result;
+    }
+
+    public static BulkUserResult ok(String id, Object result) {
+        return new BulkUserResult(id, Status.OK, null, result);
+    }
+
+    public static BulkUserResult failure(String id, Status status, String error) {
+        return new BulkUserResult(id, status, error, null);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,172 @@
+package io.cloudtrust.keycloak.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helpers writing streams of entities as JSON while they are produced, so that the memory used by an export does not
+ * depend on its size. The output is flushed every {@link #FLUSH_INTERVAL} entities; as the response is written to a
+ * blocking stream, a slow client slows down the production of the entities instead of letting them pile up.
+ */
+public final class JsonStreaming {
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+    static final int FLUSH_INTERVAL = 100;
+
+    //Avoid class instantiation
+    private JsonStreaming() {
+    }
+
+    /**
+     * Loads a page of entities
+     *
+     * @param <T> type of the entities
+     */
+    @FunctionalInterface
+    public interface PageLoader<T> {
+        /**
+         * @param first index of the first entity
+         * @param max   maximum number of entities
+         * @return the entities of the page, the page is the last one when it has less than max entities
+         */
+        Stream<T> load(int first, int max);
+    }
+
+    /**
+     * Writes entities as NDJSON: one JSON document per line
+     *
+     * @param writer writer of the entities
+     * @param items  entities, the stream is closed once written
+     * @return the streaming output
+     */
+    public static StreamingOutput ndjson(ObjectWriter writer, Stream<?> items) {
+        return output -> write(writer, items, output, true);
+    }
+
+    /**
+     * Writes entities as a JSON array
+     *
+     * @param writer writer of the entities
+     * @param items  entities, the stream is closed once written
+     * @return the streaming output
+     */
+    public static StreamingOutput jsonArray(ObjectWriter writer, Stream<?> items) {
+        return output -> write(writer, items, output, false);
+    }
+
+    /**
+     * Creates a stream loading its entities page by page, when the previous page has been consumed. Only one page is
+     * open at a time and each page stream is closed once consumed.
+     *
+     * @param loader   page loader
+     * @param first    index of the first entity
+     * @param max      maximum number of entities, negative for no limit
+     * @param pageSize number of entities loaded at once
+     * @param <T>      type of the entities
+     * @return the entities
+     */
+    public static <T> Stream<T> paginate(PageLoader<T> loader, int first, int max, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        PageIterator<T> iterator = new PageIterator<>(loader, first, max, pageSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
+    }
+
+    private static void write(ObjectWriter writer, Stream<?> items, OutputStream output, boolean ndjson) throws IOException {
+        try (Stream<?> toClose = items; JsonGenerator generator = writer.getFactory().createGenerator(output)) {
+            // the response stream is closed by the container
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            try (SequenceWriter sequence = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE).writeValues(generator)) {
+                if (!ndjson) {
+                    generator.writeStartArray();
+                }
+                Iterator<?> it = toClose.iterator();
+                int count = 0;
+                while (it.hasNext()) {
+                    sequence.write(it.next());
+                    if (ndjson) {
+                        generator.writeRaw('\n');
+                    }
+                    if (++count % FLUSH_INTERVAL == 0) {
+                        generator.flush();
+                    }
+                }
+                if (!ndjson) {
+                    generator.writeEndArray();
+                }
+            }
+        }
+    }
+
+    private static class PageIterator<T> implements Iterator<T> {
+        private final PageLoader<T> loader;
+        private final int pageSize;
+        private int next;
+        private int remaining;
+        private Stream<T> page;
+        private Iterator<T> pageIterator;
+        private int requested;
+        private int pageCount;
+        private boolean exhausted;
+
+        private PageIterator(PageLoader<T> loader, int first, int max, int pageSize) {
+            this.loader = loader;
+            this.pageSize = pageSize;
+            this.next = first;
+            this.remaining = max < 0 ? Integer.MAX_VALUE : max;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (true) {
+                if (pageIterator != null) {
+                    if (remaining > 0 && pageIterator.hasNext()) {
+                        return true;
+                    }
+                    exhausted = pageCount < requested;
+                    close();
+                }
+                if (exhausted || remaining <= 0) {
+                    return false;
+                }
+                requested = Math.min(pageSize, remaining);
+                page = loader.load(next, requested);
+                pageIterator = page.iterator();
+                pageCount = 0;
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            pageCount++;
+            next++;
+            remaining--;
+            return pageIterator.next();
+        }
+
+        private void close() {
+            if (page != null) {
+                page.close();
+                page = null;
+            }
+            pageIterator = null;
+        }
+    }
+}
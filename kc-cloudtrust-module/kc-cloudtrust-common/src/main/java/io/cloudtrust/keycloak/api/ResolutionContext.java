@@ -0,0 +1,98 @@
+package io.cloudtrust.keycloak.api;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.RealmManager;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import org.keycloak.services.resources.admin.permissions.AdminPermissions;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Models resolved while processing a single request, so that a resource touching the same realm or many users in one
+ * call looks each of them up once and builds a single permission evaluator per realm.
+ * Lookups returning nothing are not memoized. The context is bound to the Keycloak session of the request and must
+ * not be shared between requests.
+ */
+public class ResolutionContext {
+    private final KeycloakSession session;
+    private RealmManager realmManager;
+    private RealmModel adminRealm;
+    private final Map<String, RealmModel> realmsByName = new HashMap<>();
+    private final Map<String, UserModel> usersById = new HashMap<>();
+    private final Map<AdminAuth, Map<String, AdminPermissionEvaluator>> evaluators = new IdentityHashMap<>();
+
+    public ResolutionContext(KeycloakSession session) {
+        this.session = session;
+    }
+
+    public RealmManager getRealmManager() {
+        if (realmManager == null) {
+            realmManager = new RealmManager(session);
+        }
+        return realmManager;
+    }
+
+    /**
+     * @param realmName realm name
+     * @return the realm or null if it does not exist
+     */
+    public RealmModel getRealmByName(String realmName) {
+        RealmModel realm = realmsByName.get(realmName);
+        if (realm == null) {
+            realm = getRealmManager().getRealmByName(realmName);
+            if (realm != null) {
+                realmsByName.put(realmName, realm);
+            }
+        }
+        return realm;
+    }
+
+    public RealmModel getAdministrationRealm() {
+        if (adminRealm == null) {
+            adminRealm = getRealmManager().getKeycloakAdminstrationRealm();
+        }
+        return adminRealm;
+    }
+
+    /**
+     * @param realm  realm of the user
+     * @param userId user identifier
+     * @return the user or null if it does not exist
+     */
+    public UserModel getUserById(RealmModel realm, String userId) {
+        String key = realm.getId() + '/' + userId;
+        UserModel user = usersById.get(key);
+        if (user == null) {
+            user = session.userStorageManager().getUserById(realm, userId);
+            if (user != null) {
+                usersById.put(key, user);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Forgets a user, for instance after it has been removed
+     *
+     * @param realm  realm of the user
+     * @param userId user identifier
+     */
+    public void forgetUser(RealmModel realm, String userId) {
+        usersById.remove(realm.getId() + '/' + userId);
+    }
+
+    /**
+     * @param realm realm on which permissions are evaluated
+     * @param auth  authentication of the caller
+     * @return the permission evaluator of the caller for the realm
+     */
+    public AdminPermissionEvaluator getPermissionEvaluator(RealmModel realm, AdminAuth auth) {
+        return evaluators.computeIfAbsent(auth, a -> new HashMap<>())
+                .computeIfAbsent(realm.getId(), id -> AdminPermissions.evaluator(session, realm, auth));
+    }
+}
@@ -0,0 +1,82 @@
+package io.cloudtrust.keycloak.crypto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a re-encryption task. Counters are updated by the task and can be read from any thread.
+ */
+public class ReEncryptionStatistics {
+    private final AtomicLong scannedUsers = new AtomicLong();
+    private final AtomicLong scannedValues = new AtomicLong();
+    private final AtomicLong reEncryptedValues = new AtomicLong();
+    private final AtomicLong failedUsers = new AtomicLong();
+    private volatile long startMillis;
+    private volatile long endMillis;
+
+    void start() {
+        startMillis = System.currentTimeMillis();
+        endMillis = 0;
+    }
+
+    void stop() {
+        endMillis = System.currentTimeMillis();
+    }
+
+    void userScanned() {
+        scannedUsers.incrementAndGet();
+    }
+
+    void userFailed() {
+        failedUsers.incrementAndGet();
+    }
+
+    void valuesScanned(int count) {
+        scannedValues.addAndGet(count);
+    }
+
+    void valuesReEncrypted(int count) {
+        reEncryptedValues.addAndGet(count);
+    }
+
+    public long getScannedUsers() {
+        return scannedUsers.get();
+    }
+
+    public long getScannedValues() {
+        return scannedValues.get();
+    }
+
+    public long getReEncryptedValues() {
+        return reEncryptedValues.get();
+    }
+
+    public long getFailedUsers() {
+        return failedUsers.get();
+    }
+
+    public boolean isRunning() {
+        return startMillis != 0 && endMillis == 0;
+    }
+
+    public long getElapsedMillis() {
+        if (startMillis == 0) {
+            return 0;
+        }
+        return (endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis;
+    }
+
+    /**
+     * @return number of users scanned per second since the task started
+     */
+    public double getUsersPerSecond() {
+        long elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : getScannedUsers() * (double) TimeUnit.SECONDS.toMillis(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("users=%d (failed=%d), values=%d, re-encrypted=%d, elapsed=%dms, throughput=%.1f users/s",
+                getScannedUsers(), getFailedUsers(), getScannedValues(), getReEncryptedValues(), getElapsedMillis(), getUsersPerSecond());
+    }
+}
@@ -0,0 +1,152 @@
+package io.cloudtrust.keycloak.crypto;
+
+import io.cloudtrust.crypto.CryptoUtil;
+import org.jboss.logging.Logger;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Re-encrypts with the current DB_ENCRYPTION_KEY the user attributes which are still encrypted with an older key, so
+ * that old keys can eventually be removed from the environment.
+ * Users of the realm are processed in batches, each batch in its own transaction, with an optional pause between
+ * batches to limit the load on the database. Values stored in the legacy format (without key identifier) are left
+ * untouched.
+ */
+public class ReEncryptionTask implements Runnable {
+    private static final Logger LOG = Logger.getLogger(ReEncryptionTask.class);
+
+    public static final String EXECUTOR_NAME = "ct-re-encryption";
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final List<String> attributeNames;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final ReEncryptionStatistics statistics = new ReEncryptionStatistics();
+    private volatile boolean cancelled;
+
+    /**
+     * @param sessionFactory Keycloak session factory, used to open a transaction per batch
+     * @param realmId        identifier of the realm whose users are processed
+     * @param attributeNames names of the encrypted user attributes
+     * @param batchSize      number of users processed in a single transaction
+     * @param pauseMillis    pause between two batches, in milliseconds
+     */
+    public ReEncryptionTask(KeycloakSessionFactory sessionFactory, String realmId, Collection<String> attributeNames, int batchSize, long pauseMillis) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.attributeNames = new ArrayList<>(attributeNames);
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * Runs the task in the background using the Keycloak executor dedicated to re-encryption tasks
+     *
+     * @param session Keycloak session
+     * @param task    task to run
+     * @return the future of the task
+     */
+    public static Future<?> submit(KeycloakSession session, ReEncryptionTask task) {
+        return session.getProvider(ExecutorsProvider.class).getExecutor(EXECUTOR_NAME).submit(task);
+    }
+
+    public ReEncryptionStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stops the task once the current batch is processed
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    @Override
+    public void run() {
+        LOG.infof("Starting re-encryption of attributes %s in realm %s", attributeNames, realmId);
+        statistics.start();
+        try {
+            int first = 0;
+            int processed;
+            do {
+                processed = processBatch(first);
+                first += processed;
+                LOG.infof("Re-encryption progress in realm %s: %s", realmId, statistics);
+            } while (processed == batchSize && !cancelled && pause());
+        } finally {
+            statistics.stop();
+        }
+        LOG.infof("Re-encryption %s in realm %s: %s", cancelled ? "cancelled" : "completed", realmId, statistics);
+    }
+
+    private int processBatch(int first) {
+        AtomicInteger processed = new AtomicInteger();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null) {
+                LOG.warnf("Realm %s not found, stopping re-encryption", realmId);
+                return;
+            }
+            List<UserModel> users = session.users().getUsersStream(realm, first, batchSize).collect(Collectors.toList());
+            users.forEach(this::reEncryptUser);
+            processed.set(users.size());
+        });
+        return processed.get();
+    }
+
+    void reEncryptUser(UserModel user) {
+        statistics.userScanned();
+        try {
+            for (String name : attributeNames) {
+                List<String> values = user.getAttributeStream(name).collect(Collectors.toList());
+                if (values.isEmpty()) {
+                    continue;
+                }
+                statistics.valuesScanned(values.size());
+                List<String> updated = CryptoUtil.reEncryptForDatabaseStorage(values);
+                int changed = 0;
+                for (int i = 0; i < values.size(); i++) {
+                    if (!values.get(i).equals(updated.get(i))) {
+                        changed++;
+                    }
+                }
+                if (changed > 0) {
+                    user.setAttribute(name, updated);
+                    statistics.valuesReEncrypted(changed);
+                }
+            }
+        } catch (RuntimeException e) {
+            statistics.userFailed();
+            LOG.warnf(e, "Failed to re-encrypt attributes of user %s", user.getId());
+        }
+    }
+
+    private boolean pause() {
+        if (pauseMillis > 0) {
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,341 @@
+package io.cloudtrust.keycloak.email;
+
+import org.jboss.logging.Logger;
+import org.keycloak.email.EmailException;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends emails outside of the requests which create them. Jobs are put in a bounded queue once the transaction of the
+ * request is committed, and are dropped if it is rolled back. They are sent by a pool of workers: each worker takes up
+ * to a batch of jobs and sends them in a single Keycloak session and transaction, whose context realm is set to the
+ * realm of each job. A job which fails, or whose user is not found yet, is put back in the queue after a delay doubled
+ * at each attempt, until the maximum number of attempts is reached.
+ * When the dispatcher is synchronous or when its queue is full, emails are sent in the request, as before.
+ */
+public class EmailDispatcher {
+    private static final Logger LOG = Logger.getLogger(EmailDispatcher.class);
+
+    static final String THREADS_ENV_VAR_NAME = "CT_EMAIL_DISPATCH_THREADS";
+    static final String QUEUE_SIZE_ENV_VAR_NAME = "CT_EMAIL_DISPATCH_QUEUE_SIZE";
+    static final String BATCH_SIZE_ENV_VAR_NAME = "CT_EMAIL_DISPATCH_BATCH_SIZE";
+    static final String MAX_ATTEMPTS_ENV_VAR_NAME = "CT_EMAIL_DISPATCH_MAX_ATTEMPTS";
+    static final String RETRY_DELAY_ENV_VAR_NAME = "CT_EMAIL_DISPATCH_RETRY_DELAY";
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(10);
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static volatile EmailDispatcher instance;
+
+    private final BlockingQueue<Delivery> queue;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retries;
+    private volatile boolean running;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a synchronous dispatcher
+     */
+    public EmailDispatcher() {
+        this.queue = null;
+        this.batchSize = 1;
+        this.maxAttempts = 1;
+        this.retryDelayMillis = 0;
+        this.workers = null;
+        this.retries = null;
+        this.running = false;
+    }
+
+    /**
+     * Creates an asynchronous dispatcher
+     *
+     * @param threads     number of workers
+     * @param queueSize   maximum number of emails waiting to be sent
+     * @param batchSize   maximum number of emails sent in the same session
+     * @param maxAttempts maximum number of attempts to send an email
+     * @param retryDelay  delay before the first retry, doubled at each attempt
+     */
+    public EmailDispatcher(int threads, int queueSize, int batchSize, int maxAttempts, Duration retryDelay) {
+        if (threads <= 0 || queueSize <= 0 || batchSize <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Threads, queue size, batch size and attempts must be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelay.toMillis();
+        this.workers = Executors.newFixedThreadPool(threads, threadFactory("ct-email-dispatch-"));
+        this.retries = Executors.newSingleThreadScheduledExecutor(threadFactory("ct-email-retry-"));
+        this.running = true;
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Gets the dispatcher configured by the environment variables CT_EMAIL_DISPATCH_THREADS (number of workers),
+     * CT_EMAIL_DISPATCH_QUEUE_SIZE, CT_EMAIL_DISPATCH_BATCH_SIZE, CT_EMAIL_DISPATCH_MAX_ATTEMPTS and
+     * CT_EMAIL_DISPATCH_RETRY_DELAY (in seconds). The dispatcher is synchronous if CT_EMAIL_DISPATCH_THREADS is not set or is 0.
+     *
+     * @return the dispatcher
+     */
+    public static EmailDispatcher getInstance() {
+        EmailDispatcher res = instance;
+        if (res == null) {
+            synchronized (EmailDispatcher.class) {
+                res = instance;
+                if (res == null) {
+                    res = fromEnvironment();
+                    instance = res;
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return the dispatcher configured by the environment, synchronous if the configuration is invalid
+     */
+    static EmailDispatcher fromEnvironment() {
+        int threads = getIntEnv(THREADS_ENV_VAR_NAME, 0);
+        if (threads <= 0) {
+            return new EmailDispatcher();
+        }
+        try {
+            return new EmailDispatcher(threads, getIntEnv(QUEUE_SIZE_ENV_VAR_NAME, DEFAULT_QUEUE_SIZE),
+                    getIntEnv(BATCH_SIZE_ENV_VAR_NAME, DEFAULT_BATCH_SIZE), getIntEnv(MAX_ATTEMPTS_ENV_VAR_NAME, DEFAULT_MAX_ATTEMPTS),
+                    Duration.ofSeconds(getIntEnv(RETRY_DELAY_ENV_VAR_NAME, (int) DEFAULT_RETRY_DELAY.getSeconds())));
+        } catch (IllegalArgumentException e) {
+            LOG.warnf("Invalid email dispatcher configuration (%s), emails are sent synchronously", e.getMessage());
+            return new EmailDispatcher();
+        }
+    }
+
+    private static int getIntEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warnf("Invalid %s (%s), using %d", name, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean isAsynchronous() {
+        return running;
+    }
+
+    /**
+     * Sends an email, asynchronously if possible. When the email is sent synchronously, errors are thrown to the caller;
+     * otherwise, the email is queued after the transaction of the request is committed and errors are logged once all
+     * the attempts failed.
+     *
+     * @param session Keycloak session of the request
+     * @param realm   realm of the user
+     * @param user    recipient
+     * @param job     email to send
+     * @throws EmailException if the email is sent synchronously and fails
+     */
+    public void dispatch(KeycloakSession session, RealmModel realm, UserModel user, EmailJob job) throws EmailException {
+        if (running) {
+            // Workers must see the data committed by the request, such as a user created by it
+            session.getTransactionManager().enlistAfterCompletion(new EnqueueTransaction(session, realm, user, job));
+            return;
+        }
+        job.send(session, realm, user);
+        sent.incrementAndGet();
+    }
+
+    private void enqueue(KeycloakSession session, RealmModel realm, UserModel user, EmailJob job) {
+        if (queue.offer(new Delivery(session.getKeycloakSessionFactory(), job, 1))) {
+            return;
+        }
+        LOG.debugf("Email queue is full, sending email to user %s synchronously", user.getId());
+        try {
+            job.send(session, realm, user);
+            sent.incrementAndGet();
+        } catch (EmailException | RuntimeException e) {
+            LOG.errorf(e, "Failed to send email to user %s", user.getId());
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops the workers. Emails still waiting in the queue or for a retry are not sent.
+     *
+     * @return the number of emails which were not sent
+     */
+    public int close() {
+        if (!running) {
+            return 0;
+        }
+        running = false;
+        workers.shutdownNow();
+        int pending = queue.size() + retries.shutdownNow().size();
+        if (pending > 0) {
+            LOG.warnf("Email dispatcher stopped, %d emails not sent", pending);
+        }
+        return pending;
+    }
+
+    public int getQueueSize() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    private void work() {
+        List<Delivery> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Delivery first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    sendBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to send a batch of emails", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<Delivery> batch) {
+        Map<KeycloakSessionFactory, List<Delivery>> bySessionFactory = new LinkedHashMap<>();
+        batch.forEach(d -> bySessionFactory.computeIfAbsent(d.sessionFactory, f -> new ArrayList<>()).add(d));
+        bySessionFactory.forEach((sessionFactory, deliveries) -> KeycloakModelUtils.runJobInTransaction(sessionFactory,
+                session -> deliveries.forEach(d -> send(session, d))));
+    }
+
+    private void send(KeycloakSession session, Delivery delivery) {
+        EmailJob job = delivery.job;
+        RealmModel realm = session.realms().getRealm(job.getRealmId());
+        UserModel user = realm == null ? null : session.users().getUserById(realm, job.getUserId());
+        if (user == null) {
+            // The transaction which created the user may not be visible yet on this node
+            retry(delivery, new IllegalStateException("User " + job.getUserId() + " not found in realm " + job.getRealmId()));
+            return;
+        }
+        try {
+            // The worker session has no request: the realm of its context is used by the theme and email providers
+            session.getContext().setRealm(realm);
+            job.send(session, realm, user);
+            sent.incrementAndGet();
+        } catch (EmailException | RuntimeException e) {
+            retry(delivery, e);
+        }
+    }
+
+    private void retry(Delivery delivery, Exception cause) {
+        if (delivery.attempt >= maxAttempts || !running) {
+            LOG.errorf(cause, "Failed to send email to user %s after %d attempts", delivery.job.getUserId(), delivery.attempt);
+            failed.incrementAndGet();
+            return;
+        }
+        long delay = Math.min(retryDelayMillis << Math.min(delivery.attempt - 1, 20), MAX_RETRY_DELAY_MILLIS);
+        LOG.warnf("Failed to send email to user %s (attempt %d), retrying in %dms: %s", delivery.job.getUserId(),
+                delivery.attempt, delay, cause.getMessage());
+        retried.incrementAndGet();
+        Delivery next = new Delivery(delivery.sessionFactory, delivery.job, delivery.attempt + 1);
+        retries.schedule(() -> requeue(next), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void requeue(Delivery delivery) {
+        try {
+            queue.put(delivery);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queues a job when the transaction of the request is committed
+     */
+    private final class EnqueueTransaction extends AbstractKeycloakTransaction {
+        private final KeycloakSession session;
+        private final RealmModel realm;
+        private final UserModel user;
+        private final EmailJob job;
+
+        private EnqueueTransaction(KeycloakSession session, RealmModel realm, UserModel user, EmailJob job) {
+            this.session = session;
+            this.realm = realm;
+            this.user = user;
+            this.job = job;
+        }
+
+        @Override
+        protected void commitImpl() {
+            enqueue(session, realm, user, job);
+        }
+
+        @Override
+        protected void rollbackImpl() {
+            LOG.debugf("Request rolled back, email to user %s not sent", job.getUserId());
+        }
+    }
+
+    static final class Delivery {
+        private final KeycloakSessionFactory sessionFactory;
+        private final EmailJob job;
+        private final int attempt;
+
+        Delivery(KeycloakSessionFactory sessionFactory, EmailJob job, int attempt) {
+            this.sessionFactory = sessionFactory;
+            this.job = job;
+            this.attempt = attempt;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.cloudtrust.keycloak.email;
+
+import org.keycloak.email.EmailException;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Email to be sent to a user by {@link EmailDispatcher}. A job only keeps identifiers and values computed in the
+ * request which created it: when it is sent asynchronously, the realm and the user are looked up again in the session
+ * of the worker.
+ */
+public interface EmailJob {
+    String getRealmId();
+
+    String getUserId();
+
+    /**
+     * Sends the email. When it is sent asynchronously, the session has no request and its context only holds the realm.
+     *
+     * @param session Keycloak session
+     * @param realm   realm of the user
+     * @param user    recipient
+     * @throws EmailException if the email can't be sent
+     */
+    void send(KeycloakSession session, RealmModel realm, UserModel user) throws EmailException;
+}
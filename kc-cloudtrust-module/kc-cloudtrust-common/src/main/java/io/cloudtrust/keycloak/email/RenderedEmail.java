@@ -0,0 +1,54 @@
+package io.cloudtrust.keycloak.email;
+
+import org.keycloak.email.EmailException;
+import org.keycloak.email.EmailSenderProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+/**
+ * Email rendered in the request which created it, see {@link RenderingEmailTemplateProvider}. Sending it only needs the
+ * SMTP configuration of the realm and the address of the user: it does not depend on the request (URI, locale, theme).
+ */
+public class RenderedEmail implements EmailJob {
+    private final String realmId;
+    private final String userId;
+    private final String subject;
+    private final String textBody;
+    private final String htmlBody;
+
+    public RenderedEmail(RealmModel realm, UserModel user, String subject, String textBody, String htmlBody) {
+        this.realmId = realm.getId();
+        this.userId = user.getId();
+        this.subject = subject;
+        this.textBody = textBody;
+        this.htmlBody = htmlBody;
+    }
+
+    @Override
+    public String getRealmId() {
+        return realmId;
+    }
+
+    @Override
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getTextBody() {
+        return textBody;
+    }
+
+    public String getHtmlBody() {
+        return htmlBody;
+    }
+
+    @Override
+    public void send(KeycloakSession session, RealmModel realm, UserModel user) throws EmailException {
+        session.getProvider(EmailSenderProvider.class).send(realm.getSmtpConfig(), user, subject, textBody, htmlBody);
+    }
+}
@@ -0,0 +1,51 @@
+package io.cloudtrust.keycloak.email;
+
+import org.keycloak.email.EmailTemplateProvider;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.theme.FreeMarkerUtil;
+
+import java.util.Map;
+
+/**
+ * Keycloak FreeMarker email template provider which renders emails without sending them. Rendering needs the request
+ * (base URI, locale of the user, theme of the realm): it is done in the request and the resulting {@link RenderedEmail}
+ * can be sent later by {@link EmailDispatcher}.
+ */
+public class RenderingEmailTemplateProvider extends FreeMarkerEmailTemplateProvider {
+    private static final FreeMarkerUtil FREE_MARKER = new FreeMarkerUtil();
+
+    private RenderedEmail rendered;
+
+    public RenderingEmailTemplateProvider(KeycloakSession session) {
+        super(session, FREE_MARKER);
+    }
+
+    /**
+     * Emails can be rendered in the request only when the configured email template provider is the Keycloak one:
+     * other providers may render or send emails differently.
+     *
+     * @param session Keycloak session
+     * @return true if the emails rendered by this provider are the ones the configured provider would send
+     */
+    public static boolean canRender(KeycloakSession session) {
+        EmailTemplateProvider provider = session.getProvider(EmailTemplateProvider.class);
+        return provider != null && provider.getClass() == FreeMarkerEmailTemplateProvider.class;
+    }
+
+    /**
+     * @return the last rendered email
+     * @throws IllegalStateException if no email was rendered
+     */
+    public RenderedEmail getRenderedEmail() {
+        if (rendered == null) {
+            throw new IllegalStateException("No email rendered");
+        }
+        return rendered;
+    }
+
+    @Override
+    protected void send(Map<String, String> config, String subject, String textBody, String htmlBody) {
+        rendered = new RenderedEmail(realm, user, subject, textBody, htmlBody);
+    }
+}
@@ -0,0 +1,45 @@
+package io.cloudtrust.keycloak.models;
+
+import java.time.LocalDate;
+
+/**
+ * Accreditation type of a user which expired or is about to expire, as reported by {@link AccreditationExpiryScanner}
+ */
+public class AccreditationExpiry {
+    private final String userId;
+    private final String username;
+    private final String type;
+    private final LocalDate expiryDate;
+    private final boolean expired;
+
+    public AccreditationExpiry(String userId, String username, String type, LocalDate expiryDate, boolean expired) {
+        this.userId = userId;
+        this.username = username;
+        this.type = type;
+        this.expiryDate = expiryDate;
+        this.expired = expired;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public LocalDate getExpiryDate() {
+        return expiryDate;
+    }
+
+    /**
+     * @return true if the accreditation type already expired, false if it is about to expire
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+}
@@ -0,0 +1,206 @@
+package io.cloudtrust.keycloak.models;
+
+import org.jboss.logging.Logger;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Scans the users of a realm and reports the accreditation types which expired recently or are about to expire.
+ * The identifiers of the users are streamed by a single query, in one transaction, and grouped by pages; each page is
+ * processed in its own transaction, on the Keycloak executor {@value #WORKER_EXECUTOR_NAME} when several pages are
+ * processed in parallel. At most parallelism pages are in flight at once, so the query is not read faster than the
+ * pages are processed. Accreditations are evaluated through {@link AccreditationIndex} without materializing any
+ * model. For each type, only the latest expiry date of its non-revoked accreditations is considered: a type renewed
+ * by a newer accreditation is not reported.
+ */
+public class AccreditationExpiryScanner implements Runnable {
+    private static final Logger LOG = Logger.getLogger(AccreditationExpiryScanner.class);
+
+    public static final String EXECUTOR_NAME = "ct-accreditation-scan";
+    public static final String WORKER_EXECUTOR_NAME = "ct-accreditation-scan-worker";
+    public static final int DEFAULT_PAGE_SIZE = 500;
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final String attributeName;
+    private final int lookbackDays;
+    private final int horizonDays;
+    private final AccreditationExpirySink sink;
+    private final int pageSize;
+    private final int parallelism;
+    private final AtomicLong scannedUsers = new AtomicLong();
+    private final AtomicLong failedUsers = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong expiring = new AtomicLong();
+    private volatile boolean cancelled;
+
+    /**
+     * @param sessionFactory Keycloak session factory, used to open the transactions
+     * @param realmId        identifier of the realm whose users are scanned
+     * @param attributeName  name of the user attribute holding the accreditations
+     * @param lookbackDays   accreditations which expired during the last lookbackDays days are reported as expired
+     * @param horizonDays    accreditations expiring during the next horizonDays days are reported as expiring
+     * @param sink           receives the reported accreditations
+     * @param pageSize       number of users processed in a single transaction
+     * @param parallelism    number of pages processed in parallel
+     */
+    public AccreditationExpiryScanner(KeycloakSessionFactory sessionFactory, String realmId, String attributeName, int lookbackDays,
+                                      int horizonDays, AccreditationExpirySink sink, int pageSize, int parallelism) {
+        if (pageSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Page size and parallelism must be positive");
+        }
+        this.sessionFactory = sessionFactory;
+        this.realmId = realmId;
+        this.attributeName = attributeName;
+        this.lookbackDays = lookbackDays;
+        this.horizonDays = horizonDays;
+        this.sink = sink;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Runs the scanner in the background using the Keycloak executor dedicated to accreditation scans
+     *
+     * @param session Keycloak session
+     * @param scanner scanner to run
+     * @return the future of the scan
+     */
+    public static Future<?> submit(KeycloakSession session, AccreditationExpiryScanner scanner) {
+        return session.getProvider(ExecutorsProvider.class).getExecutor(EXECUTOR_NAME).submit(scanner);
+    }
+
+    /**
+     * Stops the scan once the pages being processed are done
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public long getScannedUsers() {
+        return scannedUsers.get();
+    }
+
+    public long getFailedUsers() {
+        return failedUsers.get();
+    }
+
+    public long getExpired() {
+        return expired.get();
+    }
+
+    public long getExpiring() {
+        return expiring.get();
+    }
+
+    @Override
+    public void run() {
+        LocalDate today = LocalDate.now();
+        long start = System.currentTimeMillis();
+        LOG.infof("Starting accreditation expiry scan in realm %s", realmId);
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> scanRealm(session, today));
+        LOG.infof("Accreditation expiry scan %s in realm %s: %s in %dms", cancelled ? "cancelled" : "completed", realmId, this,
+                System.currentTimeMillis() - start);
+    }
+
+    private void scanRealm(KeycloakSession session, LocalDate today) {
+        RealmModel realm = session.realms().getRealm(realmId);
+        if (realm == null) {
+            LOG.warnf("Realm %s not found, stopping accreditation expiry scan", realmId);
+            return;
+        }
+        ExecutorService executor = parallelism == 1 ? null : session.getProvider(ExecutorsProvider.class).getExecutor(WORKER_EXECUTOR_NAME);
+        Semaphore slots = new Semaphore(parallelism);
+        try (Stream<UserModel> users = session.users().getUsersStream(realm)) {
+            Iterator<UserModel> iterator = users.iterator();
+            while (iterator.hasNext() && !cancelled) {
+                List<String> page = new ArrayList<>(pageSize);
+                while (page.size() < pageSize && iterator.hasNext()) {
+                    page.add(iterator.next().getId());
+                }
+                if (executor == null) {
+                    processPage(page, today);
+                } else {
+                    slots.acquire();
+                    submitPage(executor, slots, page, today);
+                }
+            }
+            // Waits for the pages being processed
+            slots.acquire(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        }
+    }
+
+    private void submitPage(ExecutorService executor, Semaphore slots, List<String> page, LocalDate today) {
+        try {
+            executor.execute(() -> {
+                try {
+                    processPage(page, today);
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    private void processPage(List<String> userIds, LocalDate today) {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                RealmModel realm = session.realms().getRealm(realmId);
+                for (String userId : userIds) {
+                    UserModel user = session.users().getUserById(realm, userId);
+                    // The user may have been removed since the page was read
+                    if (user != null) {
+                        scanUser(session, realm, user, today);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            cancelled = true;
+            LOG.errorf(e, "Accreditation expiry scan failed in realm %s", realmId);
+        }
+    }
+
+    void scanUser(KeycloakSession session, RealmModel realm, UserModel user, LocalDate today) {
+        scannedUsers.incrementAndGet();
+        try {
+            long todayEpochDay = today.toEpochDay();
+            AccreditationIndex index = AccreditationIndex.of(user.getAttributeStream(attributeName).collect(Collectors.toList()));
+            index.forEachLatestExpiry((type, expiryEpochDay) -> {
+                if (expiryEpochDay > todayEpochDay - lookbackDays && expiryEpochDay <= todayEpochDay + horizonDays) {
+                    boolean isExpired = expiryEpochDay <= todayEpochDay;
+                    (isExpired ? expired : expiring).incrementAndGet();
+                    sink.accept(session, realm, new AccreditationExpiry(user.getId(), user.getUsername(), type, LocalDate.ofEpochDay(expiryEpochDay), isExpired));
+                }
+            });
+        } catch (RuntimeException e) {
+            failedUsers.incrementAndGet();
+            LOG.warnf(e, "Failed to scan accreditations of user %s", user.getId());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("users=%d (failed=%d), expired=%d, expiring=%d", getScannedUsers(), getFailedUsers(), getExpired(), getExpiring());
+    }
+}
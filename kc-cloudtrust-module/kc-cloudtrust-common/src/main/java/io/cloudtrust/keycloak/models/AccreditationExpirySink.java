@@ -0,0 +1,18 @@
+package io.cloudtrust.keycloak.models;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+/**
+ * Receives the accreditations found by an {@link AccreditationExpiryScanner}. Implementations must be thread-safe as
+ * the scanner processes several pages of users in parallel.
+ */
+@FunctionalInterface
+public interface AccreditationExpirySink {
+    /**
+     * @param session session of the transaction processing the user
+     * @param realm   realm of the user
+     * @param expiry  expired or expiring accreditation
+     */
+    void accept(KeycloakSession session, RealmModel realm, AccreditationExpiry expiry);
+}
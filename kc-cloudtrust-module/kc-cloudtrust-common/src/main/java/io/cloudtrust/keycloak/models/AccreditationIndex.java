@@ -0,0 +1,138 @@
+package io.cloudtrust.keycloak.models;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Index of the accreditations of a user: for each type, the latest expiry date of the accreditations which are not
+ * revoked. Queries do not parse anything; the index is updated incrementally when the accreditations change, only the
+ * new values being parsed.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class AccreditationIndex {
+    public static final AccreditationIndex EMPTY = new AccreditationIndex(Collections.emptyList(), Collections.emptyMap());
+
+    private final List<String> values;
+    // compiled accreditation by JSON value, null for invalid values
+    private final Map<String, CompiledAccreditation> accreditations;
+    private final Map<String, Integer> latestExpiryByType;
+    private final int[] sortedExpiries;
+
+    private AccreditationIndex(List<String> values, Map<String, CompiledAccreditation> accreditations) {
+        this.values = values;
+        this.accreditations = accreditations;
+        Map<String, Integer> latest = new HashMap<>();
+        for (CompiledAccreditation accreditation : accreditations.values()) {
+            if (accreditation != null && accreditation.getType() != null && !accreditation.isRevoked() && accreditation.getExpiryEpochDay() != AccreditationParser.NO_EXPIRY) {
+                latest.merge(accreditation.getType(), accreditation.getExpiryEpochDay(), Math::max);
+            }
+        }
+        this.latestExpiryByType = latest;
+        this.sortedExpiries = latest.values().stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    /**
+     * Builds the index of the given accreditations
+     *
+     * @param accreditations JSON representations of the accreditations, invalid values are ignored
+     * @return the index
+     */
+    public static AccreditationIndex of(Collection<String> accreditations) {
+        return EMPTY.update(accreditations);
+    }
+
+    /**
+     * Gets the index of the given accreditations, reusing the values already parsed by this index
+     *
+     * @param newAccreditations JSON representations of the accreditations, invalid values are ignored
+     * @return this index if the accreditations did not change, a new index otherwise
+     */
+    public AccreditationIndex update(Collection<String> newAccreditations) {
+        List<String> newValues = new ArrayList<>(newAccreditations);
+        if (newValues.equals(values)) {
+            return this;
+        }
+        Map<String, CompiledAccreditation> updated = new HashMap<>();
+        for (String json : newValues) {
+            if (json != null && !updated.containsKey(json)) {
+                updated.put(json, accreditations.containsKey(json) ? accreditations.get(json) : CompiledAccreditation.compile(json));
+            }
+        }
+        return new AccreditationIndex(newValues, updated);
+    }
+
+    /**
+     * Tells whether the user holds a valid accreditation of a given type
+     *
+     * @param type accreditation type
+     * @param date reference date
+     * @return true if an accreditation of this type is not revoked and expires after the reference date
+     */
+    public boolean hasValid(String type, LocalDate date) {
+        Integer expiry = latestExpiryByType.get(type);
+        return expiry != null && expiry > date.toEpochDay();
+    }
+
+    /**
+     * Gets the date when the user will lose one of the accreditation types valid today
+     *
+     * @return the next expiry date or null if the user holds no valid accreditation
+     */
+    public LocalDate nextExpiry() {
+        return nextExpiry(LocalDate.now());
+    }
+
+    /**
+     * Gets the date when the user will lose one of the accreditation types valid at the reference date
+     *
+     * @param reference reference date
+     * @return the next expiry date after the reference date or null if the user holds no valid accreditation
+     */
+    public LocalDate nextExpiry(LocalDate reference) {
+        long referenceEpochDay = reference.toEpochDay();
+        if (referenceEpochDay >= Integer.MAX_VALUE) {
+            return null;
+        }
+        int index = Arrays.binarySearch(sortedExpiries, (int) referenceEpochDay + 1);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // several types may expire the same day
+            while (index > 0 && sortedExpiries[index - 1] == sortedExpiries[index]) {
+                index--;
+            }
+        }
+        return index < sortedExpiries.length ? LocalDate.ofEpochDay(sortedExpiries[index]) : null;
+    }
+
+    /**
+     * Iterates over the latest expiry date of each accreditation type
+     *
+     * @param consumer receives the type and its latest expiry date as an epoch day
+     */
+    public void forEachLatestExpiry(ObjIntConsumer<String> consumer) {
+        latestExpiryByType.forEach(consumer::accept);
+    }
+
+    /**
+     * @param date reference date
+     * @return the types of the accreditations valid at the reference date
+     */
+    public List<String> validTypes(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        List<String> res = new ArrayList<>(latestExpiryByType.size());
+        latestExpiryByType.forEach((type, expiry) -> {
+            if (expiry > epochDay) {
+                res.add(type);
+            }
+        });
+        return res;
+    }
+}
@@ -0,0 +1,69 @@
+package io.cloudtrust.keycloak.models;
+
+import org.keycloak.models.UserModel;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Bounded cache of the accreditation indexes of the most recently seen users. The cached index is checked against the
+ * current attribute values at each access and updated incrementally when they changed, so that it is never stale.
+ */
+public class AccreditationIndexCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final String attributeName;
+    private final Map<String, AccreditationIndex> indexes;
+
+    /**
+     * @param attributeName name of the user attribute holding the accreditations
+     * @param maxSize       maximum number of users in the cache
+     */
+    public AccreditationIndexCache(String attributeName, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.attributeName = attributeName;
+        this.indexes = new LinkedHashMap<String, AccreditationIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AccreditationIndex> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the accreditation index of a user
+     *
+     * @param user user
+     * @return the index of the current accreditations of the user
+     */
+    public AccreditationIndex get(UserModel user) {
+        List<String> values = user.getAttributeStream(attributeName).collect(Collectors.toList());
+        AccreditationIndex index;
+        synchronized (indexes) {
+            index = indexes.getOrDefault(user.getId(), AccreditationIndex.EMPTY);
+        }
+        // parsing is done outside of the lock
+        AccreditationIndex updated = index.update(values);
+        if (updated != index) {
+            synchronized (indexes) {
+                indexes.put(user.getId(), updated);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Removes the index of a user, for instance when the user is deleted
+     *
+     * @param userId user identifier
+     */
+    public void invalidate(String userId) {
+        synchronized (indexes) {
+            indexes.remove(userId);
+        }
+    }
+}
@@ -4,21 +4,19 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cloudtrust.json.JsonUtil;
 import org.jboss.logging.Logger;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonIgnoreProperties(value = "creationMillis")
 public class AccreditationModel {
     private static final Logger LOG = Logger.getLogger(AccreditationModel.class);
-    private final DateFormat cloudtrustDateFormat = new SimpleDateFormat("dd.MM.yyyy");
 
     private String type;
     private String expiryDate;
@@ -50,13 +48,13 @@ public class AccreditationModel {
         if (type == null || (revoked != null && revoked) || expiryDate == null) {
             return false;
         }
-        try {
-            Instant accreditationInstant = cloudtrustDateFormat.parse(expiryDate).toInstant();
-            return accreditationInstant.isAfter(reference);
-        } catch (ParseException e) {
+        int expiryEpochDay = AccreditationParser.parseExpiryDate(expiryDate);
+        if (expiryEpochDay == AccreditationParser.NO_EXPIRY) {
             LOG.warn("Could not parse expiryDate " + expiryDate);
             return false;
         }
+        Instant accreditationInstant = LocalDate.ofEpochDay(expiryEpochDay).atStartOfDay(ZoneId.systemDefault()).toInstant();
+        return accreditationInstant.isAfter(reference);
     }
 
     public Boolean isRevoked() {
@@ -70,7 +68,7 @@ public class AccreditationModel {
     public static AccreditationModel tryParse(String json) {
         if (json != null) {
             try {
-                return new ObjectMapper().readValue(json, AccreditationModel.class);
+                return JsonUtil.readValue(json, AccreditationModel.class);
             } catch (IOException e) {
                 LOG.warnf(e, "Can't parse %s", json);
             }
@@ -79,6 +77,6 @@ public class AccreditationModel {
     }
 
     public String toJSON() throws JsonProcessingException {
-        return new ObjectMapper().writeValueAsString(this);
+        return JsonUtil.toJson(this);
     }
 }
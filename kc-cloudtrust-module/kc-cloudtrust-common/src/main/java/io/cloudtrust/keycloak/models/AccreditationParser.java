@@ -0,0 +1,154 @@
+package io.cloudtrust.keycloak.models;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.cloudtrust.json.JsonUtil;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Streaming parser of the accreditation JSON representation. Only the fields needed to evaluate an accreditation are
+ * read: the type is interned and the expiry date is converted to an epoch day without intermediate String.
+ * An instance holds the fields of the last parsed accreditation and is meant to be reused by a single thread.
+ */
+final class AccreditationParser {
+    static final int NO_EXPIRY = Integer.MIN_VALUE;
+    private static final int TYPE_CACHE_SIZE = 256;
+    // accreditation types are few: a racy cache is enough to avoid allocating them again
+    private static final String[] TYPE_CACHE = new String[TYPE_CACHE_SIZE];
+
+    String type;
+    int expiryEpochDay;
+    boolean revoked;
+
+    /**
+     * Parses an accreditation
+     *
+     * @param json JSON representation of the accreditation
+     * @return false if json is not a valid JSON object or if type, expiryDate or revoked is an object or an array, which
+     * {@link AccreditationModel#tryParse(String)} rejects too
+     */
+    boolean parse(String json) {
+        type = null;
+        expiryEpochDay = NO_EXPIRY;
+        revoked = false;
+        if (json == null) {
+            return false;
+        }
+        try (JsonParser parser = JsonUtil.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value.isStructStart() && isModelField(name)) {
+                    parser.skipChildren();
+                    return false;
+                }
+                if ("type".equals(name)) {
+                    type = value.isScalarValue() && value != JsonToken.VALUE_NULL ? internType(parser) : null;
+                } else if ("expiryDate".equals(name)) {
+                    expiryEpochDay = value == JsonToken.VALUE_STRING
+                            ? parseExpiryDate(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength())
+                            : NO_EXPIRY;
+                } else if ("revoked".equals(name)) {
+                    revoked = value == JsonToken.VALUE_TRUE;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return token == JsonToken.END_OBJECT;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isModelField(String name) {
+        return "type".equals(name) || "expiryDate".equals(name) || "revoked".equals(name);
+    }
+
+    /**
+     * Converts a date formatted as dd.MM.yyyy to an epoch day
+     *
+     * @param date formatted date
+     * @return the epoch day or NO_EXPIRY if the date is not valid
+     */
+    static int parseExpiryDate(String date) {
+        return date == null ? NO_EXPIRY : parseExpiryDate(date.toCharArray(), 0, date.length());
+    }
+
+    static int parseExpiryDate(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int dayEnd = indexOf(chars, '.', offset, end);
+        int monthEnd = indexOf(chars, '.', dayEnd + 1, end);
+        int day = parseNumber(chars, offset, dayEnd, 2);
+        int month = parseNumber(chars, dayEnd + 1, monthEnd, 2);
+        int year = parseNumber(chars, monthEnd + 1, end, 4);
+        if (day < 0 || month < 0 || year < 0) {
+            return NO_EXPIRY;
+        }
+        try {
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return NO_EXPIRY;
+        }
+    }
+
+    private static int indexOf(char[] chars, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int parseNumber(char[] chars, int from, int end, int maxDigits) {
+        if (from >= end || end - from > maxDigits) {
+            return -1;
+        }
+        int res = 0;
+        for (int i = from; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            res = res * 10 + (c - '0');
+        }
+        return res;
+    }
+
+    private static String internType(JsonParser parser) throws IOException {
+        char[] chars = parser.getTextCharacters();
+        int offset = parser.getTextOffset();
+        int length = parser.getTextLength();
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (TYPE_CACHE_SIZE - 1);
+        String cached = TYPE_CACHE[index];
+        if (cached != null && contentEquals(cached, chars, offset, length)) {
+            return cached;
+        }
+        String type = new String(chars, offset, length).intern();
+        TYPE_CACHE[index] = type;
+        return type;
+    }
+
+    private static boolean contentEquals(String value, char[] chars, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,95 @@
+package io.cloudtrust.keycloak.models;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Accreditation ready to be evaluated: the type is interned and the expiry date is stored as an epoch day, so that
+ * checking the validity does not parse nor allocate anything.
+ * An accreditation is valid if it has a type, is not revoked and expires after the reference date.
+ */
+public final class CompiledAccreditation {
+    private final String type;
+    private final int expiryEpochDay;
+    private final boolean revoked;
+
+    private CompiledAccreditation(String type, int expiryEpochDay, boolean revoked) {
+        this.type = type;
+        this.expiryEpochDay = expiryEpochDay;
+        this.revoked = revoked;
+    }
+
+    /**
+     * Compiles the JSON representation of an accreditation
+     *
+     * @param json JSON representation of the accreditation
+     * @return the compiled accreditation or null if json is not a valid JSON object
+     */
+    public static CompiledAccreditation compile(String json) {
+        AccreditationParser parser = new AccreditationParser();
+        return parser.parse(json) ? new CompiledAccreditation(parser.type, parser.expiryEpochDay, parser.revoked) : null;
+    }
+
+    /**
+     * Compiles an accreditation model
+     *
+     * @param model accreditation
+     * @return the compiled accreditation or null if model is null
+     */
+    public static CompiledAccreditation compile(AccreditationModel model) {
+        if (model == null) {
+            return null;
+        }
+        String type = model.getType() == null ? null : model.getType().intern();
+        return new CompiledAccreditation(type, AccreditationParser.parseExpiryDate(model.getExpiryDate()), Boolean.TRUE.equals(model.isRevoked()));
+    }
+
+    /**
+     * Gets the types of the valid accreditations. Accreditations are parsed with a streaming parser and are never
+     * materialized: this is the preferred way to evaluate all the accreditations of a user.
+     *
+     * @param accreditations JSON representations of the accreditations, invalid JSON values are ignored
+     * @param reference      reference date
+     * @return the types of the accreditations valid at the reference date, in the order of the input
+     */
+    public static List<String> validAccreditations(Collection<String> accreditations, LocalDate reference) {
+        long referenceEpochDay = reference.toEpochDay();
+        AccreditationParser parser = new AccreditationParser();
+        List<String> res = new ArrayList<>(accreditations.size());
+        for (String json : accreditations) {
+            if (parser.parse(json) && isValid(parser.type, parser.expiryEpochDay, parser.revoked, referenceEpochDay)) {
+                res.add(parser.type);
+            }
+        }
+        return res;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the expiry date as an epoch day, or Integer.MIN_VALUE if the accreditation has no valid expiry date
+     */
+    public int getExpiryEpochDay() {
+        return expiryEpochDay;
+    }
+
+    public boolean isRevoked() {
+        return revoked;
+    }
+
+    public boolean isValid(LocalDate reference) {
+        return isValid(reference.toEpochDay());
+    }
+
+    public boolean isValid(long referenceEpochDay) {
+        return isValid(type, expiryEpochDay, revoked, referenceEpochDay);
+    }
+
+    private static boolean isValid(String type, int expiryEpochDay, boolean revoked, long referenceEpochDay) {
+        return type != null && !revoked && expiryEpochDay != AccreditationParser.NO_EXPIRY && expiryEpochDay > referenceEpochDay;
+    }
+}
@@ -0,0 +1,58 @@
+package io.cloudtrust.keycloak.models;
+
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stored credentials of a user, loaded with a single query. Credentials are indexed by type, in the order of their
+ * priority as returned by the credential store.
+ * A snapshot is not kept in the session: it is shared by the components of a single call, for instance a form render
+ * (see {@link CtAuthenticatorBean}), so that credentials created or removed earlier in the request are always seen.
+ */
+public class CredentialSnapshot {
+    private final List<CredentialModel> credentials;
+    private final Map<String, List<CredentialModel>> credentialsByType;
+
+    CredentialSnapshot(List<CredentialModel> credentials) {
+        this.credentials = Collections.unmodifiableList(credentials);
+        this.credentialsByType = credentials.stream()
+                .collect(Collectors.groupingBy(CredentialModel::getType, HashMap::new, Collectors.toCollection(ArrayList::new)));
+    }
+
+    /**
+     * Loads the credentials of a user
+     *
+     * @param session Keycloak session
+     * @param realm   realm of the user
+     * @param user    user
+     * @return the credentials of the user
+     */
+    public static CredentialSnapshot of(KeycloakSession session, RealmModel realm, UserModel user) {
+        return new CredentialSnapshot(session.userCredentialManager().getStoredCredentialsStream(realm, user).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return all the credentials, by priority
+     */
+    public Stream<CredentialModel> getCredentialsStream() {
+        return credentials.stream();
+    }
+
+    /**
+     * @param type credential type
+     * @return the credentials of the type, by priority
+     */
+    public Stream<CredentialModel> getCredentialsByTypeStream(String type) {
+        return credentialsByType.getOrDefault(type, Collections.emptyList()).stream();
+    }
+}
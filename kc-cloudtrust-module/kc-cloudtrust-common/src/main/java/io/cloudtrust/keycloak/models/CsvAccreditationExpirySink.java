@@ -0,0 +1,58 @@
+package io.cloudtrust.keycloak.models;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes the scanned accreditations as CSV lines: realm_id,user_id,username,type,expiry_date,status
+ */
+public class CsvAccreditationExpirySink implements AccreditationExpirySink, Closeable {
+    static final String HEADER = "realm_id,user_id,username,type,expiry_date,status";
+
+    private final Writer writer;
+
+    /**
+     * @param writer destination, closed with this sink
+     * @throws IOException if the header cannot be written
+     */
+    public CsvAccreditationExpirySink(Writer writer) throws IOException {
+        this.writer = writer;
+        writer.write(HEADER);
+        writer.write('\n');
+    }
+
+    @Override
+    public void accept(KeycloakSession session, RealmModel realm, AccreditationExpiry expiry) {
+        String line = escape(realm.getId()) + ',' + escape(expiry.getUserId()) + ',' + escape(expiry.getUsername()) + ','
+                + escape(expiry.getType()) + ',' + expiry.getExpiryDate() + ',' + (expiry.isExpired() ? "EXPIRED" : "EXPIRING") + '\n';
+        try {
+            synchronized (writer) {
+                writer.write(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
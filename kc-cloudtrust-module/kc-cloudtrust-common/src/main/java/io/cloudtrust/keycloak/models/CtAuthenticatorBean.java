@@ -22,8 +22,17 @@ public class CtAuthenticatorBean<T> {
 
     public CtAuthenticatorBean(KeycloakSession session, UserModel user, String selectedCredentialId, String credentialModelType,
             String credProviderFactoryProviderId, Function<CredentialModel, T> converter) {
+        this(session, user, CredentialSnapshot.of(session, session.getContext().getRealm(), user), selectedCredentialId,
+                credentialModelType, credProviderFactoryProviderId, converter);
+    }
+
+    /**
+     * @param snapshot credentials of the user loaded by the caller, shared with the other components of the same render
+     */
+    public CtAuthenticatorBean(KeycloakSession session, UserModel user, CredentialSnapshot snapshot, String selectedCredentialId,
+            String credentialModelType, String credProviderFactoryProviderId, Function<CredentialModel, T> converter) {
         RealmModel realm = session.getContext().getRealm();
-        this.userCredentials = session.userCredentialManager().getStoredCredentialsByTypeStream(realm, user, credentialModelType)
+        this.userCredentials = snapshot.getCredentialsByTypeStream(credentialModelType)
                 .map(converter)
                 .collect(Collectors.toList());
 
@@ -0,0 +1,43 @@
+package io.cloudtrust.keycloak.models;
+
+import io.cloudtrust.keycloak.Events;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Sends the scanned accreditations as events to the event listeners enabled in the realm
+ */
+public class EventAccreditationExpirySink implements AccreditationExpirySink {
+    public static final String EVENT_TYPE_EXPIRED = "ACCREDITATION_EXPIRED";
+    public static final String EVENT_TYPE_EXPIRING = "ACCREDITATION_EXPIRING";
+    public static final String CT_EVENT_ACCREDITATION_TYPE = "accreditation_type";
+    public static final String CT_EVENT_EXPIRY_DATE = "expiry_date";
+
+    @Override
+    public void accept(KeycloakSession session, RealmModel realm, AccreditationExpiry expiry) {
+        Map<String, String> details = new HashMap<>();
+        details.put(Events.CT_EVENT_TYPE, expiry.isExpired() ? EVENT_TYPE_EXPIRED : EVENT_TYPE_EXPIRING);
+        details.put(Events.CT_EVENT_USERNAME, expiry.getUsername());
+        details.put(CT_EVENT_ACCREDITATION_TYPE, expiry.getType());
+        details.put(CT_EVENT_EXPIRY_DATE, expiry.getExpiryDate().toString());
+
+        Event event = new Event();
+        event.setType(EventType.CUSTOM_REQUIRED_ACTION);
+        event.setTime(System.currentTimeMillis());
+        event.setRealmId(realm.getId());
+        event.setUserId(expiry.getUserId());
+        event.setDetails(details);
+
+        realm.getEventsListenersStream()
+                .map(id -> session.getProvider(EventListenerProvider.class, id))
+                .filter(Objects::nonNull)
+                .forEach(listener -> listener.onEvent(event));
+    }
+}
@@ -0,0 +1,79 @@
+package io.cloudtrust.keycloak;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.credential.CredentialTypeMetadata;
+import org.keycloak.credential.CredentialTypeMetadataContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.provider.ProviderFactory;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+class CredentialTypeCacheTest {
+    private KeycloakSession session;
+    private KeycloakSessionFactory sessionFactory;
+    private RealmModel realm;
+    private CredentialProvider<?> provider;
+
+    @BeforeEach
+    void setup() {
+        session = Mockito.mock(KeycloakSession.class);
+        sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        realm = Mockito.mock(RealmModel.class);
+        provider = Mockito.mock(CredentialProvider.class);
+        CredentialTypeMetadata metadata = Mockito.mock(CredentialTypeMetadata.class);
+        ProviderFactory<?> providerFactory = Mockito.mock(ProviderFactory.class);
+
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.doReturn(Collections.singleton(provider)).when(session).getAllProviders(CredentialProvider.class);
+        Mockito.when(sessionFactory.getProviderFactoriesStream(CredentialProvider.class)).thenAnswer(inv -> Stream.of(providerFactory));
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(provider.getType()).thenReturn("otp");
+        Mockito.when(provider.getCredentialTypeMetadata(Mockito.any(CredentialTypeMetadataContext.class))).thenReturn(metadata);
+        Mockito.when(metadata.getDisplayName()).thenReturn("otp-display-name");
+    }
+
+    @AfterEach
+    void cleanup() {
+        CredentialTypeCache.factoriesCheckIntervalNanos = CredentialTypeCache.FACTORIES_CHECK_INTERVAL.toNanos();
+    }
+
+    @Test
+    void displayNamesAreComputedOncePerRealmTest() {
+        UserModel user = Mockito.mock(UserModel.class);
+        Map<String, String> displayNames = CredentialTypeCache.getDisplayNames(session, realm, user);
+        Assertions.assertEquals(Collections.singletonMap("otp", "otp-display-name"), displayNames);
+        Assertions.assertSame(displayNames, CredentialTypeCache.getDisplayNames(session, realm, user));
+        Mockito.verify(provider, Mockito.times(1)).getCredentialTypeMetadata(Mockito.any());
+    }
+
+    @Test
+    void factoriesAreNotComparedOnEachLookupTest() {
+        UserModel user = Mockito.mock(UserModel.class);
+        for (int i = 0; i < 5; i++) {
+            CredentialTypeCache.getDisplayNames(session, realm, user);
+        }
+        Mockito.verify(sessionFactory, Mockito.times(1)).getProviderFactoriesStream(CredentialProvider.class);
+    }
+
+    @Test
+    void redeploymentTest() {
+        CredentialTypeCache.factoriesCheckIntervalNanos = 0;
+        UserModel user = Mockito.mock(UserModel.class);
+        CredentialTypeCache.getDisplayNames(session, realm, user);
+        ProviderFactory<?> redeployed = Mockito.mock(ProviderFactory.class);
+        Mockito.when(sessionFactory.getProviderFactoriesStream(CredentialProvider.class)).thenAnswer(inv -> Stream.of(redeployed));
+
+        CredentialTypeCache.getDisplayNames(session, realm, user);
+        Mockito.verify(provider, Mockito.times(2)).getCredentialTypeMetadata(Mockito.any());
+    }
+}
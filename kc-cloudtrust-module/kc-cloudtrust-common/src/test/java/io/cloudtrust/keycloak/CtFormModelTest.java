@@ -0,0 +1,56 @@
+package io.cloudtrust.keycloak;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.AuthenticationExecutionModel;
+
+class CtFormModelTest {
+    @Test
+    void builderTest() {
+        CtFormModel model = CtFormModel.builder()
+                .credentialId("cred-2")
+                .credential(authExec("exec-1", "ct-sms"), credential("cred-1", "my phone"))
+                .credential(authExec("exec-2", "otp"), credential(null, null))
+                .build();
+
+        Assertions.assertEquals("cred-2", model.getCredentialId());
+        Assertions.assertEquals(2, model.getCredentials().size());
+        CtFormModel.Option option = model.getCredentials().get(0);
+        Assertions.assertEquals("exec-1|cred-1", option.getId());
+        Assertions.assertEquals("exec-1", option.getAuthExecId());
+        Assertions.assertEquals("ct-sms", option.getAuthExecName());
+        Assertions.assertEquals("cred-1", option.getCredentialId());
+        Assertions.assertEquals("my phone", option.getCredentialName());
+        Assertions.assertFalse(option.showCredentialType());
+        Assertions.assertEquals("exec-2|", model.getCredentials().get(1).getId());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> model.getCredentials().clear());
+    }
+
+    @Test
+    void toStringTest() {
+        CtFormModel model = CtFormModel.builder()
+                .credentialId("cred-1")
+                .credential(authExec("exec-1", "ct-sms"), credential("cred-1", "my phone"))
+                .build();
+
+        String json = model.toString();
+        Assertions.assertTrue(json.contains("\"credentialId\":\"cred-1\""));
+        Assertions.assertTrue(json.contains("\"credentialName\":\"my phone\""));
+        Assertions.assertSame(json, model.toString());
+    }
+
+    private static AuthenticationExecutionModel authExec(String id, String authenticator) {
+        AuthenticationExecutionModel authExec = new AuthenticationExecutionModel();
+        authExec.setId(id);
+        authExec.setAuthenticator(authenticator);
+        return authExec;
+    }
+
+    private static CredentialModel credential(String id, String userLabel) {
+        CredentialModel credential = new CredentialModel();
+        credential.setId(id);
+        credential.setUserLabel(userLabel);
+        return credential;
+    }
+}
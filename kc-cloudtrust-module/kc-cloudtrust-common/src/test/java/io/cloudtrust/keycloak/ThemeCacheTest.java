@@ -0,0 +1,183 @@
+package io.cloudtrust.keycloak;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.provider.ProviderFactory;
+import org.keycloak.theme.Theme;
+import org.keycloak.theme.Theme.Type;
+import org.keycloak.theme.ThemeProvider;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+class ThemeCacheTest {
+    private KeycloakSession session;
+    private KeycloakSessionFactory sessionFactory;
+    private RealmModel realm;
+    private ThemeProvider provider;
+    private Theme childTheme;
+    private Theme parentTheme;
+
+    @BeforeEach
+    void setup() throws IOException {
+        session = Mockito.mock(KeycloakSession.class);
+        sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        KeycloakContext context = Mockito.mock(KeycloakContext.class);
+        realm = Mockito.mock(RealmModel.class);
+        provider = Mockito.mock(ThemeProvider.class);
+        childTheme = Mockito.mock(Theme.class);
+        parentTheme = Mockito.mock(Theme.class);
+        ProviderFactory<?> providerFactory = Mockito.mock(ProviderFactory.class);
+
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.when(session.getContext()).thenReturn(context);
+        Mockito.when(session.getAllProviders(ThemeProvider.class)).thenReturn(Collections.singleton(provider));
+        Mockito.when(sessionFactory.getProviderFactoriesStream(ThemeProvider.class)).thenAnswer(inv -> Stream.of(providerFactory));
+        Mockito.when(context.getRealm()).thenReturn(realm);
+        Mockito.when(realm.getLoginTheme()).thenReturn("child");
+
+        Mockito.when(provider.hasTheme("child", Type.LOGIN)).thenReturn(true);
+        Mockito.when(provider.hasTheme("parent", Type.LOGIN)).thenReturn(true);
+        Mockito.when(provider.getTheme("child", Type.LOGIN)).thenReturn(childTheme);
+        Mockito.when(provider.getTheme("parent", Type.LOGIN)).thenReturn(parentTheme);
+        Mockito.when(childTheme.getName()).thenReturn("child");
+        Mockito.when(childTheme.getParentName()).thenReturn("parent");
+        Mockito.when(parentTheme.getName()).thenReturn("parent");
+        Mockito.when(parentTheme.getResourceAsStream("img/logo.png")).thenAnswer(inv -> new ByteArrayInputStream(new byte[]{1}));
+    }
+
+    @AfterEach
+    void cleanup() {
+        ThemeCache.factoriesCheckIntervalNanos = ThemeCache.FACTORIES_CHECK_INTERVAL.toNanos();
+        ThemeUtils.clearThemeCache();
+    }
+
+    @Test
+    void themeIsResolvedOnceTest() throws IOException {
+        Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        Mockito.verify(provider, Mockito.times(1)).hasTheme("child", Type.LOGIN);
+
+        Assertions.assertNull(ThemeUtils.findThemeByName(session, Type.LOGIN, "unknown"));
+        Assertions.assertNull(ThemeUtils.findThemeByName(session, Type.LOGIN, "unknown"));
+        Mockito.verify(provider, Mockito.times(1)).hasTheme("unknown", Type.LOGIN);
+    }
+
+    @Test
+    void resourceOwnerIsRememberedTest() throws IOException {
+        try (InputStream stream = ThemeUtils.getStreamToResourceImage(session, "img/logo.png")) {
+            Assertions.assertNotNull(stream);
+        }
+        try (InputStream stream = ThemeUtils.getStreamToResourceImage(session, "img/logo.png")) {
+            Assertions.assertNotNull(stream);
+        }
+        Mockito.verify(childTheme, Mockito.times(1)).getResourceAsStream("img/logo.png");
+        Mockito.verify(parentTheme, Mockito.times(2)).getResourceAsStream("img/logo.png");
+
+        Assertions.assertNull(ThemeUtils.getStreamToResourceImage(session, "img/missing.png"));
+        Assertions.assertNull(ThemeUtils.getStreamToResourceImage(session, "img/missing.png"));
+        Mockito.verify(parentTheme, Mockito.times(1)).getResourceAsStream("img/missing.png");
+    }
+
+    @Test
+    void realmThemeChangeTest() throws IOException {
+        Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        Mockito.when(realm.getLoginTheme()).thenReturn("parent");
+        Assertions.assertSame(parentTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+    }
+
+    @Test
+    void redeploymentTest() throws IOException {
+        ThemeCache.factoriesCheckIntervalNanos = 0;
+        Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        ProviderFactory<?> redeployed = Mockito.mock(ProviderFactory.class);
+        Mockito.when(sessionFactory.getProviderFactoriesStream(ThemeProvider.class)).thenAnswer(inv -> Stream.of(redeployed));
+
+        Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        Mockito.verify(provider, Mockito.times(2)).hasTheme("child", Type.LOGIN);
+    }
+
+    @Test
+    void factoriesAreNotComparedOnEachLookupTest() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertSame(childTheme, ThemeUtils.findTheme(session, Type.LOGIN));
+        }
+        Mockito.verify(sessionFactory, Mockito.times(1)).getProviderFactoriesStream(ThemeProvider.class);
+    }
+
+    @Test
+    void resourceOwnersEvictionTest() {
+        ThemeCache cache = ThemeCache.get(sessionFactory);
+        cache.setResourceOwner(Type.LOGIN, "child", "first", 0);
+        cache.setResourceOwner(Type.LOGIN, "child", "second", 1);
+        for (int i = 0; i < ThemeCache.MAX_RESOURCE_OWNERS - 2; i++) {
+            cache.setResourceOwner(Type.LOGIN, "child", "path" + i, 0);
+        }
+        // "first" becomes the most recently used entry
+        Assertions.assertEquals(0, cache.getResourceOwner(Type.LOGIN, "child", "first"));
+        cache.setResourceOwner(Type.LOGIN, "child", "last", ThemeCache.NOT_FOUND);
+
+        Assertions.assertEquals(0, cache.getResourceOwner(Type.LOGIN, "child", "first"));
+        Assertions.assertNull(cache.getResourceOwner(Type.LOGIN, "child", "second"));
+        Assertions.assertEquals(0, cache.getResourceOwner(Type.LOGIN, "child", "path0"));
+        Assertions.assertEquals(ThemeCache.NOT_FOUND, cache.getResourceOwner(Type.LOGIN, "child", "last"));
+    }
+
+    @Test
+    void messagesAreLoadedOnceTest() throws IOException {
+        ThemeManager themeManager = Mockito.mock(ThemeManager.class);
+        Properties messages = new Properties();
+        messages.setProperty("otp", "Your code is {0}");
+        messages.setProperty("title", "Title");
+        Mockito.when(session.theme()).thenReturn(themeManager);
+        Mockito.when(themeManager.getTheme(Type.LOGIN)).thenReturn(childTheme);
+        Mockito.when(childTheme.getType()).thenReturn(Type.LOGIN);
+        Mockito.when(childTheme.getMessages(Locale.ENGLISH)).thenReturn(messages);
+
+        Assertions.assertEquals("Your code is {0}", ThemeUtils.loadMessageFromTheme(session, null, "otp"));
+        Assertions.assertNull(ThemeUtils.loadMessageFromTheme(session, null, "unknown"));
+        Map<String, String> bulk = ThemeUtils.loadMessagesFromTheme(session, null, Arrays.asList("otp", "title", "unknown"));
+        Assertions.assertEquals(2, bulk.size());
+        Assertions.assertEquals("Title", bulk.get("title"));
+        Mockito.verify(childTheme, Mockito.times(1)).getMessages(Locale.ENGLISH);
+    }
+
+    @Test
+    void messagesLoadingFailureIsNotCachedTest() throws IOException {
+        ThemeManager themeManager = Mockito.mock(ThemeManager.class);
+        Mockito.when(session.theme()).thenReturn(themeManager);
+        Mockito.when(themeManager.getTheme(Type.LOGIN)).thenReturn(childTheme);
+        Mockito.when(childTheme.getType()).thenReturn(Type.LOGIN);
+        Mockito.when(childTheme.getMessages(Locale.ENGLISH)).thenThrow(new IOException("failure"));
+
+        Assertions.assertNull(ThemeUtils.loadMessageFromTheme(session, null, "otp"));
+        Assertions.assertNull(ThemeUtils.loadMessageFromTheme(session, null, "otp"));
+        Mockito.verify(childTheme, Mockito.times(2)).getMessages(Locale.ENGLISH);
+    }
+
+    @Test
+    void resourceContentIsCachedTest() throws IOException {
+        ThemeResource first = ThemeUtils.getResourceImage(session, "img/logo.png");
+        ThemeResource second = ThemeUtils.getResourceImage(session, "img/logo.png");
+
+        Assertions.assertNotNull(first);
+        Assertions.assertSame(first, second);
+        Mockito.verify(parentTheme, Mockito.times(1)).getResourceAsStream("img/logo.png");
+        Assertions.assertNull(ThemeUtils.getResourceImage(session, "img/missing.png"));
+    }
+}
@@ -0,0 +1,80 @@
+package io.cloudtrust.keycloak;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class ThemeResourceTest {
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    void readTest() throws IOException {
+        ThemeResource resource = ThemeResource.read("img/logo.png", new ByteArrayInputStream(CONTENT), 10);
+        Assertions.assertTrue(resource.isInMemory());
+        Assertions.assertEquals(10, resource.getLength());
+        Assertions.assertEquals("image/png", resource.getContentType());
+        Assertions.assertTrue(resource.getEtag().startsWith("\"") && resource.getEtag().endsWith("\""));
+        Assertions.assertEquals(resource.getEtag(), new ThemeResource("other.png", CONTENT.clone()).getEtag());
+        Assertions.assertNotEquals(resource.getEtag(), new ThemeResource("img/logo.png", new byte[]{1}).getEtag());
+    }
+
+    @Test
+    void largeResourceIsStreamedTest() throws IOException {
+        ThemeResource resource = ThemeResource.read("img/logo.png", new ByteArrayInputStream(CONTENT), 4);
+        Assertions.assertFalse(resource.isInMemory());
+        Assertions.assertNull(resource.getEtag());
+        Assertions.assertEquals(-1, resource.getLength());
+
+        // Conditional and range requests get the whole content
+        Response response = resource.toResponse("*", "bytes=2-4", null);
+        Assertions.assertEquals(200, response.getStatus());
+        Assertions.assertNull(response.getEntityTag());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        Assertions.assertArrayEquals(CONTENT, output.toByteArray());
+    }
+
+    @Test
+    void parseRangeTest() {
+        Assertions.assertArrayEquals(new long[]{0, 4}, ThemeResource.parseRange("bytes=0-4", 10));
+        Assertions.assertArrayEquals(new long[]{5, 9}, ThemeResource.parseRange("bytes=5-", 10));
+        Assertions.assertArrayEquals(new long[]{7, 9}, ThemeResource.parseRange("bytes=-3", 10));
+        Assertions.assertArrayEquals(new long[]{0, 9}, ThemeResource.parseRange("bytes=-30", 10));
+        Assertions.assertArrayEquals(new long[]{8, 9}, ThemeResource.parseRange("bytes=8-100", 10));
+        Assertions.assertNull(ThemeResource.parseRange("bytes=10-12", 10));
+        Assertions.assertNull(ThemeResource.parseRange("bytes=5-2", 10));
+        Assertions.assertEquals(0, ThemeResource.parseRange("bytes=0-1,4-5", 10).length);
+        Assertions.assertEquals(0, ThemeResource.parseRange("items=0-1", 10).length);
+        Assertions.assertEquals(0, ThemeResource.parseRange("bytes=a-b", 10).length);
+    }
+
+    @Test
+    void responseTest() throws IOException {
+        ThemeResource resource = new ThemeResource("img/logo.png", CONTENT);
+
+        Response full = resource.toResponse(null, null, null);
+        Assertions.assertEquals(200, full.getStatus());
+        Assertions.assertSame(CONTENT, full.getEntity());
+
+        Assertions.assertEquals(304, resource.toResponse(resource.getEtag(), null, null).getStatus());
+        Assertions.assertEquals(304, resource.toResponse("\"other\", W/" + resource.getEtag(), null, null).getStatus());
+        Assertions.assertEquals(200, resource.toResponse("\"other\"", null, null).getStatus());
+
+        Response partial = resource.toResponse(null, "bytes=2-4", null);
+        Assertions.assertEquals(206, partial.getStatus());
+        Assertions.assertEquals("bytes 2-4/10", partial.getHeaderString(ThemeResource.CONTENT_RANGE));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) partial.getEntity()).write(output);
+        Assertions.assertEquals("234", output.toString("UTF-8"));
+
+        Assertions.assertEquals(200, resource.toResponse(null, "bytes=2-4", "\"old\"").getStatus());
+        Assertions.assertEquals(206, resource.toResponse(null, "bytes=2-4", resource.getEtag()).getStatus());
+        Assertions.assertEquals(416, resource.toResponse(null, "bytes=20-", null).getStatus());
+    }
+}
@@ -0,0 +1,201 @@
+package io.cloudtrust.keycloak.api;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.models.UserSessionModel;
+import org.keycloak.models.UserSessionProvider;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class AdminAuthCacheTest {
+    private static final String TOKEN = "header.payload.signature";
+
+    private final AtomicLong clock = new AtomicLong();
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserModel user;
+    private ClientModel client;
+    private UserSessionProvider sessions;
+    private AdminAuthCache cache;
+
+    @BeforeEach
+    void setup() {
+        session = Mockito.mock(KeycloakSession.class);
+        RealmProvider realms = Mockito.mock(RealmProvider.class);
+        UserProvider users = Mockito.mock(UserProvider.class);
+        realm = Mockito.mock(RealmModel.class);
+        user = Mockito.mock(UserModel.class);
+        client = Mockito.mock(ClientModel.class);
+        sessions = Mockito.mock(UserSessionProvider.class);
+        UserSessionModel userSession = Mockito.mock(UserSessionModel.class);
+
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(session.sessions()).thenReturn(sessions);
+        Mockito.when(sessions.getUserSession(realm, "session-id")).thenReturn(userSession);
+        Mockito.when(userSession.getStarted()).thenReturn(Time.currentTime());
+        Mockito.when(userSession.getLastSessionRefresh()).thenReturn(Time.currentTime());
+        Mockito.when(realm.getSsoSessionIdleTimeout()).thenReturn(1800);
+        Mockito.when(realm.getSsoSessionMaxLifespan()).thenReturn(36000);
+        Mockito.when(session.users()).thenReturn(users);
+        Mockito.when(realms.getRealm("realm-id")).thenReturn(realm);
+        Mockito.when(users.getUserById(realm, "user-id")).thenReturn(user);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(realm.isEnabled()).thenReturn(true);
+        Mockito.when(realm.getClientById("client-uuid")).thenReturn(client);
+        Mockito.when(user.getId()).thenReturn("user-id");
+        Mockito.when(user.isEnabled()).thenReturn(true);
+        Mockito.when(client.getId()).thenReturn("client-uuid");
+        Mockito.when(client.isEnabled()).thenReturn(true);
+        Mockito.when(client.getClientId()).thenReturn("admin-client");
+
+        cache = new AdminAuthCache(10, Duration.ofSeconds(30), clock::get);
+    }
+
+    @Test
+    void getTest() {
+        Assertions.assertNull(cache.get(session, TOKEN));
+        cache.put(TOKEN, adminAuth(300));
+
+        AdminAuth auth = cache.get(session, TOKEN);
+        Assertions.assertNotNull(auth);
+        Assertions.assertSame(realm, auth.getRealm());
+        Assertions.assertSame(user, auth.getUser());
+        Assertions.assertSame(client, auth.getClient());
+        Assertions.assertNull(cache.get(session, TOKEN + "x"));
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void ttlTest() {
+        cache.put(TOKEN, adminAuth(300));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(29));
+        Assertions.assertNotNull(cache.get(session, TOKEN));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        Assertions.assertNull(cache.get(session, TOKEN));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void ttlCappedByTokenExpirationTest() {
+        cache.put(TOKEN, adminAuth(10));
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        Assertions.assertNull(cache.get(session, TOKEN));
+
+        cache.put(TOKEN, adminAuth(-1));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void disabledUserTest() {
+        cache.put(TOKEN, adminAuth(300));
+        Mockito.when(user.isEnabled()).thenReturn(false);
+        Assertions.assertNull(cache.get(session, TOKEN));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void disabledClientTest() {
+        cache.put(TOKEN, adminAuth(300));
+        Mockito.when(client.isEnabled()).thenReturn(false);
+        Assertions.assertNull(cache.get(session, TOKEN));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void userSessionLoggedOutTest() {
+        cache.put(TOKEN, adminAuth(300));
+        Assertions.assertNotNull(cache.get(session, TOKEN));
+
+        // Logout done on another node or without the event listener
+        Mockito.when(sessions.getUserSession(realm, "session-id")).thenReturn(null);
+        Assertions.assertNull(cache.get(session, TOKEN));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidatorWithoutCacheTest() {
+        AdminAuthCacheInvalidator invalidator = (AdminAuthCacheInvalidator) new AdminAuthCacheInvalidatorFactory().create(session);
+        Event logout = new Event();
+        logout.setType(EventType.LOGOUT);
+        logout.setSessionId("session-id");
+        Assertions.assertDoesNotThrow(() -> invalidator.onEvent(logout));
+        Assertions.assertDoesNotThrow(() -> invalidator.onEvent(adminEvent(ResourceType.REALM, OperationType.ACTION, "logout-all"), false));
+    }
+
+    @Test
+    void invalidationTest() {
+        AdminAuthCacheInvalidator invalidator = new AdminAuthCacheInvalidator(cache);
+
+        cache.put(TOKEN, adminAuth(300));
+        Event logout = new Event();
+        logout.setType(EventType.LOGOUT);
+        logout.setSessionId("other-session");
+        invalidator.onEvent(logout);
+        Assertions.assertEquals(1, cache.size());
+        logout.setSessionId("session-id");
+        invalidator.onEvent(logout);
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(TOKEN, adminAuth(300));
+        Event revoke = new Event();
+        revoke.setType(EventType.REVOKE_GRANT);
+        revoke.setUserId("user-id");
+        invalidator.onEvent(revoke);
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(TOKEN, adminAuth(300));
+        invalidator.onEvent(adminEvent(ResourceType.USER, OperationType.UPDATE, "users/user-id"), false);
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(TOKEN, adminAuth(300));
+        invalidator.onEvent(adminEvent(ResourceType.USER_SESSION, OperationType.DELETE, "sessions/session-id"), false);
+        Assertions.assertEquals(0, cache.size());
+
+        cache.put(TOKEN, adminAuth(300));
+        invalidator.onEvent(adminEvent(ResourceType.USER, OperationType.CREATE, "users/user-id"), false);
+        Assertions.assertEquals(1, cache.size());
+        invalidator.onEvent(adminEvent(ResourceType.REALM, OperationType.ACTION, "logout-all"), false);
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidSizeTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new AdminAuthCache(0, Duration.ofSeconds(30)));
+    }
+
+    private AdminAuth adminAuth(int expiresIn) {
+        AccessToken token = new AccessToken();
+        token.exp((long) Time.currentTime() + expiresIn);
+        token.issuedFor("admin-client");
+        token.setSessionState("session-id");
+        return new AdminAuth(realm, token, user, client);
+    }
+
+    private static AdminEvent adminEvent(ResourceType resourceType, OperationType operationType, String resourcePath) {
+        AdminEvent event = new AdminEvent();
+        event.setRealmId("realm-id");
+        event.setResourceType(resourceType);
+        event.setOperationType(operationType);
+        event.setResourcePath(resourcePath);
+        return event;
+    }
+}
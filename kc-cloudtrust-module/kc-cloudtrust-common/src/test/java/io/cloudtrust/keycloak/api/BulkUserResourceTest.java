@@ -0,0 +1,184 @@
+package io.cloudtrust.keycloak.api;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.services.resources.admin.AdminAuth;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import org.keycloak.services.resources.admin.permissions.UserPermissionEvaluator;
+import org.mockito.Mockito;
+
+import javax.ws.rs.ForbiddenException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class BulkUserResourceTest {
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserProvider users;
+    private UserPermissionEvaluator permissions;
+    private AdminAuth auth;
+    private ResolutionContext resolution;
+    private KeycloakTransactionManager transactionManager;
+
+    @BeforeEach
+    void setup() {
+        session = Mockito.mock(KeycloakSession.class);
+        realm = Mockito.mock(RealmModel.class);
+        users = Mockito.mock(UserProvider.class);
+        permissions = Mockito.mock(UserPermissionEvaluator.class);
+        auth = Mockito.mock(AdminAuth.class);
+        resolution = Mockito.mock(ResolutionContext.class);
+        transactionManager = Mockito.mock(KeycloakTransactionManager.class);
+        AdminPermissionEvaluator evaluator = Mockito.mock(AdminPermissionEvaluator.class);
+        KeycloakSessionFactory sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        RealmProvider realms = Mockito.mock(RealmProvider.class);
+
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.when(sessionFactory.create()).thenReturn(session);
+        Mockito.when(session.getTransactionManager()).thenReturn(transactionManager);
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(realms.getRealm("realm-id")).thenReturn(realm);
+        Mockito.when(session.userStorageManager()).thenReturn(users);
+        Mockito.when(resolution.getPermissionEvaluator(realm, auth)).thenReturn(evaluator);
+        Mockito.when(evaluator.users()).thenReturn(permissions);
+        for (String id : new String[]{"u1", "u2", "u3"}) {
+            UserModel user = Mockito.mock(UserModel.class);
+            Mockito.when(user.getId()).thenReturn(id);
+            Mockito.when(users.getUserById(realm, id)).thenReturn(user);
+        }
+    }
+
+    @Test
+    void ndjsonTest() throws IOException {
+        Mockito.when(permissions.canManage()).thenReturn(true);
+        List<String> applied = new ArrayList<>();
+
+        List<String> lines = run("\"u1\"\n{\"id\":\"u2\",\"value\":\"x\"}\n\"unknown\"\n{\"name\":\"no id\"}\n", 2,
+                (s, r, user, item) -> {
+                    applied.add(user.getId());
+                    return item.has("value") ? item.get("value").asText() : null;
+                });
+
+        Assertions.assertEquals(4, lines.size());
+        Assertions.assertEquals("{\"id\":\"u1\",\"status\":\"OK\"}", lines.get(0));
+        Assertions.assertEquals("{\"id\":\"u2\",\"status\":\"OK\",\"result\":\"x\"}", lines.get(1));
+        Assertions.assertEquals("{\"id\":\"unknown\",\"status\":\"NOT_FOUND\",\"error\":\"notFound.user\"}", lines.get(2));
+        Assertions.assertEquals("{\"status\":\"INVALID\",\"error\":\"Missing user id\"}", lines.get(3));
+        Assertions.assertEquals(2, applied.size());
+        Mockito.verify(permissions, Mockito.never()).canManage(Mockito.any(UserModel.class));
+    }
+
+    @Test
+    void perUserPermissionTest() throws IOException {
+        Mockito.when(permissions.canManage()).thenReturn(false);
+        Mockito.when(permissions.canManage(Mockito.any(UserModel.class))).thenAnswer(inv -> !"u2".equals(((UserModel) inv.getArgument(0)).getId()));
+
+        List<String> lines = run("[\"u1\", \"u2\", \"u3\"]", 10, (s, r, user, item) -> null);
+
+        Assertions.assertEquals(3, lines.size());
+        Assertions.assertTrue(lines.get(0).contains("\"OK\""));
+        Assertions.assertTrue(lines.get(1).contains("\"FORBIDDEN\""));
+        Assertions.assertTrue(lines.get(2).contains("\"OK\""));
+    }
+
+    @Test
+    void failingItemTest() throws IOException {
+        Mockito.when(permissions.canManage()).thenReturn(true);
+
+        List<String> lines = run("\"u1\" \"u2\" \"u3\"", 2, (s, r, user, item) -> {
+            if ("u1".equals(user.getId())) {
+                throw new ForbiddenException("no way");
+            }
+            if ("u2".equals(user.getId())) {
+                throw new IllegalStateException("failure");
+            }
+            return null;
+        });
+
+        Assertions.assertEquals(3, lines.size());
+        Assertions.assertTrue(lines.get(0).contains("\"FORBIDDEN\""));
+        Assertions.assertTrue(lines.get(1).contains("\"ERROR\""));
+        Assertions.assertTrue(lines.get(2).contains("\"OK\""));
+    }
+
+    @Test
+    void rolledBackBatchTest() throws IOException {
+        Mockito.when(permissions.canManage()).thenReturn(true);
+        Mockito.when(transactionManager.getRollbackOnly()).thenReturn(false, true);
+
+        List<String> lines = run("\"u1\" \"u2\" \"u3\" \"unknown\"", 2, (s, r, user, item) -> null);
+
+        Assertions.assertEquals(4, lines.size());
+        Assertions.assertEquals("{\"id\":\"u1\",\"status\":\"OK\"}", lines.get(0));
+        Assertions.assertEquals("{\"id\":\"u2\",\"status\":\"OK\"}", lines.get(1));
+        Assertions.assertEquals("{\"id\":\"u3\",\"status\":\"ERROR\",\"error\":\"rolledBack\"}", lines.get(2));
+        Assertions.assertEquals("{\"id\":\"unknown\",\"status\":\"NOT_FOUND\",\"error\":\"notFound.user\"}", lines.get(3));
+        Mockito.verify(session.getKeycloakSessionFactory(), Mockito.times(2)).create();
+    }
+
+    @Test
+    void malformedBodyTest() throws IOException {
+        Mockito.when(permissions.canManage()).thenReturn(true);
+
+        List<String> lines = run("\"u1\"\n{bad", 10, (s, r, user, item) -> null);
+
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertTrue(lines.get(0).contains("\"OK\""));
+        Assertions.assertEquals("{\"status\":\"INVALID\",\"error\":\"Invalid bulk request body\"}", lines.get(1));
+    }
+
+    private List<String> run(String body, int batchSize, BulkUserOperation operation) throws IOException {
+        TestResource resource = new TestResource(batchSize);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        resource.bulkOutput("realm", new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), operation).write(output);
+        List<String> lines = new ArrayList<>();
+        for (String line : output.toString("UTF-8").split("\n")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private class TestResource extends BulkUserResource {
+        private final int batchSize;
+
+        TestResource(int batchSize) {
+            super(BulkUserResourceTest.this.session);
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected int getBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        protected AdminAuth auth() {
+            return auth;
+        }
+
+        @Override
+        protected RealmModel getRealm(AdminAuth auth, String realmName) {
+            return realm;
+        }
+
+        @Override
+        protected ResolutionContext resolution() {
+            return resolution;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.cloudtrust.keycloak.api;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.cloudtrust.json.JsonUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+class JsonStreamingTest {
+    private static final ObjectWriter WRITER = JsonUtil.writerFor(Integer.class);
+
+    @Test
+    void ndjsonTest() throws IOException {
+        Assertions.assertEquals("1\n2\n3\n", write(JsonStreaming.ndjson(WRITER, Stream.of(1, 2, 3))));
+        Assertions.assertEquals("", write(JsonStreaming.ndjson(WRITER, Stream.empty())));
+    }
+
+    @Test
+    void jsonArrayTest() throws IOException {
+        Assertions.assertEquals("[1,2,3]", write(JsonStreaming.jsonArray(WRITER, Stream.of(1, 2, 3))));
+        Assertions.assertEquals("[]", write(JsonStreaming.jsonArray(WRITER, Stream.empty())));
+    }
+
+    @Test
+    void streamIsClosedTest() throws IOException {
+        AtomicInteger closed = new AtomicInteger();
+        write(JsonStreaming.ndjson(WRITER, Stream.of(1).onClose(closed::incrementAndGet)));
+        Assertions.assertEquals(1, closed.get());
+    }
+
+    @Test
+    void paginateTest() {
+        List<Integer> loads = new ArrayList<>();
+        List<Integer> values = JsonStreaming.paginate((first, max) -> {
+            loads.add(first);
+            return IntStream.range(first, Math.min(first + max, 7)).boxed();
+        }, 0, -1, 3).collect(Collectors.toList());
+
+        Assertions.assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), values);
+        Assertions.assertEquals(Arrays.asList(0, 3, 6), loads);
+    }
+
+    @Test
+    void paginateWithLimitTest() {
+        List<Integer> loads = new ArrayList<>();
+        List<Integer> values = JsonStreaming.paginate((first, max) -> {
+            loads.add(max);
+            return IntStream.range(first, first + max).boxed();
+        }, 10, 5, 3).collect(Collectors.toList());
+
+        Assertions.assertEquals(Arrays.asList(10, 11, 12, 13, 14), values);
+        Assertions.assertEquals(Arrays.asList(3, 2), loads);
+    }
+
+    @Test
+    void paginateIsLazyTest() {
+        AtomicInteger loads = new AtomicInteger();
+        AtomicInteger closedPages = new AtomicInteger();
+        Stream<Integer> values = JsonStreaming.paginate((first, max) -> {
+            loads.incrementAndGet();
+            return IntStream.range(first, first + max).boxed().onClose(closedPages::incrementAndGet);
+        }, 0, -1, 10);
+
+        Assertions.assertEquals(Arrays.asList(0, 1, 2), values.limit(3).collect(Collectors.toList()));
+        Assertions.assertEquals(1, loads.get());
+        values.close();
+        Assertions.assertEquals(1, closedPages.get());
+    }
+
+    @Test
+    void invalidPageSizeTest() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> JsonStreaming.paginate((first, max) -> Stream.empty(), 0, -1, 0));
+    }
+
+    private static String write(StreamingOutput output) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        output.write(bytes);
+        return bytes.toString("UTF-8");
+    }
+}
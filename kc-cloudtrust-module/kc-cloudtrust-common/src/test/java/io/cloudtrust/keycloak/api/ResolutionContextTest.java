@@ -0,0 +1,58 @@
+package io.cloudtrust.keycloak.api;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.Mockito;
+
+class ResolutionContextTest {
+    private KeycloakSession session;
+    private RealmProvider realms;
+    private UserProvider users;
+    private RealmModel realm;
+
+    @BeforeEach
+    void setup() {
+        session = Mockito.mock(KeycloakSession.class);
+        realms = Mockito.mock(RealmProvider.class);
+        users = Mockito.mock(UserProvider.class);
+        realm = Mockito.mock(RealmModel.class);
+
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(session.userStorageManager()).thenReturn(users);
+        Mockito.when(realms.getRealmByName("my-realm")).thenReturn(realm);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+    }
+
+    @Test
+    void realmIsResolvedOnceTest() {
+        ResolutionContext resolution = new ResolutionContext(session);
+        Assertions.assertSame(realm, resolution.getRealmByName("my-realm"));
+        Assertions.assertSame(realm, resolution.getRealmByName("my-realm"));
+        Mockito.verify(realms, Mockito.times(1)).getRealmByName("my-realm");
+
+        Assertions.assertNull(resolution.getRealmByName("unknown"));
+        Assertions.assertNull(resolution.getRealmByName("unknown"));
+        Mockito.verify(realms, Mockito.times(2)).getRealmByName("unknown");
+    }
+
+    @Test
+    void userIsResolvedOnceTest() {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(users.getUserById(realm, "user-id")).thenReturn(user);
+
+        ResolutionContext resolution = new ResolutionContext(session);
+        Assertions.assertSame(user, resolution.getUserById(realm, "user-id"));
+        Assertions.assertSame(user, resolution.getUserById(realm, "user-id"));
+        Mockito.verify(users, Mockito.times(1)).getUserById(realm, "user-id");
+
+        resolution.forgetUser(realm, "user-id");
+        Assertions.assertSame(user, resolution.getUserById(realm, "user-id"));
+        Mockito.verify(users, Mockito.times(2)).getUserById(realm, "user-id");
+    }
+}
@@ -0,0 +1,89 @@
+package io.cloudtrust.keycloak.crypto;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.stream.Stream;
+
+class ReEncryptionTaskTest {
+    private static final String REALM_ID = "realm-id";
+    private static final String ATTRIBUTE = "encryptedAttribute";
+
+    private KeycloakSessionFactory sessionFactory;
+    private UserProvider users;
+    private RealmModel realm;
+
+    @BeforeEach
+    void setup() {
+        sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        KeycloakSession session = Mockito.mock(KeycloakSession.class);
+        RealmProvider realms = Mockito.mock(RealmProvider.class);
+        users = Mockito.mock(UserProvider.class);
+        realm = Mockito.mock(RealmModel.class);
+
+        Mockito.when(sessionFactory.create()).thenReturn(session);
+        Mockito.when(session.getTransactionManager()).thenReturn(Mockito.mock(KeycloakTransactionManager.class));
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(session.users()).thenReturn(users);
+        Mockito.when(realms.getRealm(REALM_ID)).thenReturn(realm);
+    }
+
+    @Test
+    void processAllPagesTest() {
+        Mockito.when(users.getUsersStream(realm, 0, 2)).thenAnswer(inv -> Stream.of(userWithoutValue(), userWithoutValue()));
+        Mockito.when(users.getUsersStream(realm, 2, 2)).thenAnswer(inv -> Stream.of(userWithoutValue()));
+
+        ReEncryptionTask task = new ReEncryptionTask(sessionFactory, REALM_ID, Collections.singletonList(ATTRIBUTE), 2, 0);
+        task.run();
+
+        ReEncryptionStatistics stats = task.getStatistics();
+        Assertions.assertEquals(3, stats.getScannedUsers());
+        Assertions.assertEquals(0, stats.getScannedValues());
+        Assertions.assertEquals(0, stats.getReEncryptedValues());
+        Assertions.assertFalse(stats.isRunning());
+        Mockito.verify(users, Mockito.never()).getUsersStream(realm, 4, 2);
+    }
+
+    @Test
+    void unknownRealmTest() {
+        ReEncryptionTask task = new ReEncryptionTask(sessionFactory, "unknown", Collections.singletonList(ATTRIBUTE), 2, 0);
+        task.run();
+
+        Assertions.assertEquals(0, task.getStatistics().getScannedUsers());
+    }
+
+    @Test
+    void failingUserIsCountedTest() {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getAttributeStream(ATTRIBUTE)).thenThrow(new IllegalStateException("failure"));
+        Mockito.when(users.getUsersStream(realm, 0, 2)).thenAnswer(inv -> Stream.of(user));
+
+        ReEncryptionTask task = new ReEncryptionTask(sessionFactory, REALM_ID, Collections.singletonList(ATTRIBUTE), 2, 0);
+        task.run();
+
+        Assertions.assertEquals(1, task.getStatistics().getScannedUsers());
+        Assertions.assertEquals(1, task.getStatistics().getFailedUsers());
+    }
+
+    @Test
+    void invalidBatchSizeTest() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new ReEncryptionTask(sessionFactory, REALM_ID, Collections.singletonList(ATTRIBUTE), 0, 0));
+    }
+
+    private UserModel userWithoutValue() {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getAttributeStream(ATTRIBUTE)).thenReturn(Stream.empty());
+        return user;
+    }
+}
@@ -0,0 +1,277 @@
+package io.cloudtrust.keycloak.email;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.email.EmailException;
+import org.keycloak.email.EmailSenderProvider;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransaction;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+class EmailDispatcherTest {
+    private static final String REALM_ID = "realm-id";
+
+    private KeycloakSessionFactory sessionFactory;
+    private KeycloakSession session;
+    private KeycloakContext context;
+    private UserProvider users;
+    private RealmModel realm;
+    private UserModel user;
+    private EmailDispatcher dispatcher;
+    private final List<String> outbox = new CopyOnWriteArrayList<>();
+    private final List<KeycloakTransaction> afterCompletion = new ArrayList<>();
+
+    @BeforeEach
+    void setup() {
+        sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        session = Mockito.mock(KeycloakSession.class);
+        RealmProvider realms = Mockito.mock(RealmProvider.class);
+        KeycloakTransactionManager transactionManager = Mockito.mock(KeycloakTransactionManager.class);
+        // Context of a session without request: no realm, no URI
+        context = Mockito.mock(KeycloakContext.class);
+        users = Mockito.mock(UserProvider.class);
+        realm = Mockito.mock(RealmModel.class);
+        user = Mockito.mock(UserModel.class);
+
+        Mockito.when(sessionFactory.create()).thenReturn(session);
+        Mockito.when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        Mockito.when(session.getTransactionManager()).thenReturn(transactionManager);
+        Mockito.when(session.getContext()).thenReturn(context);
+        Mockito.doAnswer(invocation -> afterCompletion.add(invocation.getArgument(0))).when(transactionManager).enlistAfterCompletion(Mockito.any());
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(session.users()).thenReturn(users);
+        Mockito.when(realms.getRealm(REALM_ID)).thenReturn(realm);
+        Mockito.when(users.getUserById(Mockito.eq(realm), Mockito.anyString())).thenReturn(user);
+        Mockito.when(realm.getId()).thenReturn(REALM_ID);
+        Mockito.when(user.getId()).thenReturn("user-id");
+    }
+
+    @AfterEach
+    void close() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    void synchronousTest() throws EmailException {
+        dispatcher = new EmailDispatcher();
+        Assertions.assertFalse(dispatcher.isAsynchronous());
+
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-1", 0));
+        Assertions.assertEquals(1, outbox.size());
+        Assertions.assertThrows(EmailException.class, () -> dispatcher.dispatch(session, realm, user, new FakeEmail("user-2", 1)));
+        Mockito.verify(sessionFactory, Mockito.never()).create();
+    }
+
+    @Test
+    void batchTest() throws EmailException, InterruptedException {
+        dispatcher = new EmailDispatcher(1, 100, 50, 1, Duration.ZERO);
+        Assertions.assertTrue(dispatcher.isAsynchronous());
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-0", 0) {
+            @Override
+            public void send(KeycloakSession session, RealmModel realm, UserModel user) throws EmailException {
+                firstStarted.countDown();
+                await(release);
+                super.send(session, realm, user);
+            }
+        });
+        commitRequest();
+        Assertions.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            dispatcher.dispatch(session, realm, user, new FakeEmail("user-" + i, 0));
+        }
+        commitRequest();
+        Assertions.assertTrue(outbox.isEmpty());
+        release.countDown();
+
+        waitFor(() -> dispatcher.getSent() == 10);
+        Assertions.assertEquals(10, outbox.size());
+        Mockito.verify(sessionFactory, Mockito.times(2)).create();
+    }
+
+    @Test
+    void retryTest() throws EmailException {
+        dispatcher = new EmailDispatcher(2, 100, 10, 3, Duration.ofMillis(10));
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-1", 2));
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-2", 5));
+        commitRequest();
+
+        waitFor(() -> dispatcher.getSent() + dispatcher.getFailed() == 2);
+        Assertions.assertEquals(1, dispatcher.getSent());
+        Assertions.assertEquals(1, dispatcher.getFailed());
+        Assertions.assertEquals(4, dispatcher.getRetried());
+        Assertions.assertEquals(1, outbox.size());
+        Assertions.assertEquals("user-1", outbox.get(0));
+    }
+
+    @Test
+    void queueFullTest() throws EmailException, InterruptedException {
+        dispatcher = new EmailDispatcher(1, 1, 1, 1, Duration.ZERO);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-0", 0) {
+            @Override
+            public void send(KeycloakSession session, RealmModel realm, UserModel user) throws EmailException {
+                firstStarted.countDown();
+                await(release);
+                super.send(session, realm, user);
+            }
+        });
+        commitRequest();
+        Assertions.assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-1", 0));
+        commitRequest();
+
+        // Queue is full: sent in the caller thread once the request is committed
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-2", 0));
+        Assertions.assertTrue(outbox.isEmpty());
+        commitRequest();
+        Assertions.assertEquals(1, outbox.size());
+        Assertions.assertEquals("user-2", outbox.get(0));
+
+        release.countDown();
+        waitFor(() -> dispatcher.getSent() == 3);
+    }
+
+    @Test
+    void rollbackTest() throws EmailException, InterruptedException {
+        dispatcher = new EmailDispatcher(1, 100, 10, 1, Duration.ZERO);
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-1", 0));
+
+        // Not queued before the request completes
+        Thread.sleep(100);
+        Assertions.assertEquals(0, dispatcher.getQueueSize());
+        Assertions.assertTrue(outbox.isEmpty());
+
+        for (KeycloakTransaction tx : afterCompletion) {
+            tx.begin();
+            tx.rollback();
+        }
+        Thread.sleep(100);
+        Assertions.assertTrue(outbox.isEmpty());
+        Assertions.assertEquals(0, dispatcher.getSent() + dispatcher.getFailed());
+        Mockito.verify(sessionFactory, Mockito.never()).create();
+    }
+
+    @Test
+    void userNotFoundYetTest() throws EmailException {
+        Mockito.when(users.getUserById(Mockito.eq(realm), Mockito.anyString())).thenReturn(null, user);
+        dispatcher = new EmailDispatcher(1, 100, 10, 3, Duration.ofMillis(10));
+        dispatcher.dispatch(session, realm, user, new FakeEmail("user-1", 0));
+        commitRequest();
+
+        waitFor(() -> dispatcher.getSent() == 1);
+        Assertions.assertEquals(1, dispatcher.getRetried());
+        Assertions.assertEquals(0, dispatcher.getFailed());
+    }
+
+    @Test
+    void renderedEmailTest() throws EmailException {
+        EmailSenderProvider sender = Mockito.mock(EmailSenderProvider.class);
+        Map<String, String> smtpConfig = Collections.singletonMap("host", "smtp.example.com");
+        Mockito.when(session.getProvider(EmailSenderProvider.class)).thenReturn(sender);
+        Mockito.when(realm.getSmtpConfig()).thenReturn(smtpConfig);
+
+        dispatcher = new EmailDispatcher(1, 100, 10, 1, Duration.ZERO);
+        dispatcher.dispatch(session, realm, user, new RenderedEmail(realm, user, "subject", "text", "<p>html</p>"));
+        commitRequest();
+
+        waitFor(() -> dispatcher.getSent() == 1);
+        Mockito.verify(context).setRealm(realm);
+        Mockito.verify(sender).send(smtpConfig, user, "subject", "text", "<p>html</p>");
+    }
+
+    @Test
+    void invalidConfigurationTest() {
+        Duration delay = Duration.ZERO;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EmailDispatcher(0, 1, 1, 1, delay));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new EmailDispatcher(1, 1, 0, 1, delay));
+    }
+
+    /**
+     * Completes the transaction of the request, running the transactions enlisted after completion
+     */
+    private void commitRequest() {
+        for (KeycloakTransaction tx : afterCompletion) {
+            tx.begin();
+            tx.commit();
+        }
+        afterCompletion.clear();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < timeout, "Timeout");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Assertions.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Email delivered to the outbox, failing the given number of times first
+     */
+    private class FakeEmail implements EmailJob {
+        private final String userId;
+        private int failures;
+
+        FakeEmail(String userId, int failures) {
+            this.userId = userId;
+            this.failures = failures;
+        }
+
+        @Override
+        public String getRealmId() {
+            return REALM_ID;
+        }
+
+        @Override
+        public String getUserId() {
+            return userId;
+        }
+
+        @Override
+        public void send(KeycloakSession session, RealmModel realm, UserModel user) throws EmailException {
+            if (failures > 0) {
+                failures--;
+                throw new EmailException("SMTP server unavailable");
+            }
+            outbox.add(userId);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package io.cloudtrust.keycloak.email;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keycloak.email.EmailException;
+import org.keycloak.email.EmailSenderProvider;
+import org.keycloak.email.EmailTemplateProvider;
+import org.keycloak.email.freemarker.FreeMarkerEmailTemplateProvider;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakUriInfo;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.ThemeManager;
+import org.keycloak.models.UserModel;
+import org.keycloak.theme.FreeMarkerUtil;
+import org.keycloak.theme.Theme;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+
+class RenderingEmailTemplateProviderTest {
+    @TempDir
+    Path themeDir;
+
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserModel user;
+
+    @BeforeEach
+    void setup() throws IOException {
+        session = Mockito.mock(KeycloakSession.class);
+        realm = Mockito.mock(RealmModel.class);
+        user = Mockito.mock(UserModel.class);
+        KeycloakContext context = Mockito.mock(KeycloakContext.class);
+        KeycloakUriInfo uriInfo = Mockito.mock(KeycloakUriInfo.class);
+        ThemeManager themeManager = Mockito.mock(ThemeManager.class);
+        Theme theme = Mockito.mock(Theme.class);
+
+        Path text = Files.createDirectories(themeDir.resolve("text")).resolve("executeActions.ftl");
+        Path html = Files.createDirectories(themeDir.resolve("html")).resolve("executeActions.ftl");
+        Files.write(text, "${realmName}: ${link}".getBytes(StandardCharsets.UTF_8));
+        Files.write(html, "<a href=\"${link}\">${realmName}</a>".getBytes(StandardCharsets.UTF_8));
+        Properties messages = new Properties();
+        messages.setProperty("executeActionsSubject", "Update your account");
+
+        Mockito.when(session.getContext()).thenReturn(context);
+        Mockito.when(session.theme()).thenReturn(themeManager);
+        Mockito.when(context.getUri()).thenReturn(uriInfo);
+        Mockito.when(context.resolveLocale(user)).thenReturn(Locale.ENGLISH);
+        Mockito.when(uriInfo.getBaseUri()).thenReturn(URI.create("https://idp.example.com/auth/"));
+        Mockito.when(themeManager.getTheme(Theme.Type.EMAIL)).thenReturn(theme);
+        Mockito.when(theme.getName()).thenReturn("rendering-test-" + themeDir.getFileName());
+        Mockito.when(theme.getType()).thenReturn(Theme.Type.EMAIL);
+        Mockito.when(theme.getMessages(Locale.ENGLISH)).thenReturn(messages);
+        Mockito.when(theme.getProperties()).thenReturn(new Properties());
+        Mockito.when(theme.getTemplate("text/executeActions.ftl")).thenReturn(text.toUri().toURL());
+        Mockito.when(theme.getTemplate("html/executeActions.ftl")).thenReturn(html.toUri().toURL());
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(realm.getName()).thenReturn("test");
+        Mockito.when(realm.getDisplayName()).thenReturn("Test realm");
+        Mockito.when(user.getId()).thenReturn("user-id");
+    }
+
+    @Test
+    void renderTest() throws EmailException {
+        EmailSenderProvider sender = Mockito.mock(EmailSenderProvider.class);
+        Mockito.when(session.getProvider(EmailSenderProvider.class)).thenReturn(sender);
+
+        RenderingEmailTemplateProvider renderer = new RenderingEmailTemplateProvider(session);
+        renderer.setRealm(realm).setUser(user).sendExecuteActions("https://idp.example.com/action?key=abc", 5);
+
+        RenderedEmail email = renderer.getRenderedEmail();
+        Assertions.assertEquals("realm-id", email.getRealmId());
+        Assertions.assertEquals("user-id", email.getUserId());
+        Assertions.assertEquals("Update your account", email.getSubject());
+        Assertions.assertEquals("Test realm: https://idp.example.com/action?key=abc", email.getTextBody());
+        Assertions.assertEquals("<a href=\"https://idp.example.com/action?key=abc\">Test realm</a>", email.getHtmlBody());
+        // Rendering does not send anything
+        Mockito.verifyZeroInteractions(sender);
+    }
+
+    @Test
+    void nothingRenderedTest() {
+        RenderingEmailTemplateProvider renderer = new RenderingEmailTemplateProvider(session);
+        Assertions.assertThrows(IllegalStateException.class, renderer::getRenderedEmail);
+    }
+
+    @Test
+    void canRenderTest() {
+        Assertions.assertFalse(RenderingEmailTemplateProvider.canRender(session));
+
+        Mockito.when(session.getProvider(EmailTemplateProvider.class)).thenReturn(Mockito.mock(EmailTemplateProvider.class));
+        Assertions.assertFalse(RenderingEmailTemplateProvider.canRender(session));
+
+        Mockito.when(session.getProvider(EmailTemplateProvider.class)).thenReturn(new FreeMarkerEmailTemplateProvider(session, new FreeMarkerUtil()));
+        Assertions.assertTrue(RenderingEmailTemplateProvider.canRender(session));
+    }
+}
@@ -0,0 +1,198 @@
+package io.cloudtrust.keycloak.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+class AccreditationExpiryScannerTest {
+    private static final String REALM_ID = "realm-id";
+    private static final String ATTRIBUTE = "accreditations";
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    private KeycloakSessionFactory sessionFactory;
+    private KeycloakSession session;
+    private UserProvider users;
+    private RealmModel realm;
+    private ExecutorsProvider executors;
+
+    @BeforeEach
+    void setup() {
+        sessionFactory = Mockito.mock(KeycloakSessionFactory.class);
+        session = Mockito.mock(KeycloakSession.class);
+        RealmProvider realms = Mockito.mock(RealmProvider.class);
+        users = Mockito.mock(UserProvider.class);
+        realm = Mockito.mock(RealmModel.class);
+        executors = Mockito.mock(ExecutorsProvider.class);
+
+        Mockito.when(sessionFactory.create()).thenReturn(session);
+        Mockito.when(session.getTransactionManager()).thenReturn(Mockito.mock(KeycloakTransactionManager.class));
+        Mockito.when(session.realms()).thenReturn(realms);
+        Mockito.when(session.users()).thenReturn(users);
+        Mockito.when(session.getProvider(ExecutorsProvider.class)).thenReturn(executors);
+        Mockito.when(realms.getRealm(REALM_ID)).thenReturn(realm);
+        Mockito.when(realm.getId()).thenReturn(REALM_ID);
+    }
+
+    @Test
+    void scanUserTest() {
+        LocalDate today = LocalDate.of(2025, 6, 15);
+        UserModel user = user("id-1", "user1",
+                accreditation("EXPIRED", today.minusDays(3)),
+                accreditation("TOO_OLD", today.minusDays(40)),
+                accreditation("EXPIRING", today.plusDays(10)),
+                accreditation("LATER", today.plusDays(100)),
+                accreditation("RENEWED", today.minusDays(1)),
+                accreditation("RENEWED", today.plusYears(1)));
+        List<AccreditationExpiry> reported = new ArrayList<>();
+        AccreditationExpiryScanner scanner = new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30,
+                (s, r, expiry) -> reported.add(expiry), 10, 1);
+
+        scanner.scanUser(session, realm, user, today);
+
+        Assertions.assertEquals(2, reported.size());
+        AccreditationExpiry expired = reported.stream().filter(AccreditationExpiry::isExpired).findFirst().orElse(null);
+        Assertions.assertNotNull(expired);
+        Assertions.assertEquals("EXPIRED", expired.getType());
+        Assertions.assertEquals(today.minusDays(3), expired.getExpiryDate());
+        Assertions.assertEquals("id-1", expired.getUserId());
+        Assertions.assertEquals("user1", expired.getUsername());
+        Assertions.assertTrue(reported.stream().anyMatch(e -> !e.isExpired() && "EXPIRING".equals(e.getType())));
+        Assertions.assertEquals(1, scanner.getExpired());
+        Assertions.assertEquals(1, scanner.getExpiring());
+    }
+
+    @Test
+    void processAllPagesTest() {
+        LocalDate today = LocalDate.now();
+        givenUsers(user("id-1", "user1", accreditation("A", today.plusDays(5))),
+                user("id-2", "user2"),
+                user("id-3", "user3", accreditation("B", today.minusDays(5))));
+        List<AccreditationExpiry> reported = Collections.synchronizedList(new ArrayList<>());
+
+        AccreditationExpiryScanner scanner = new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30,
+                (s, r, expiry) -> reported.add(expiry), 2, 1);
+        scanner.run();
+
+        Assertions.assertEquals(3, scanner.getScannedUsers());
+        Assertions.assertEquals(2, reported.size());
+        // Users are read by a single query, not by offset
+        Mockito.verify(users, Mockito.times(1)).getUsersStream(realm);
+        Mockito.verify(users, Mockito.never()).getUsersStream(Mockito.eq(realm), Mockito.anyInt(), Mockito.anyInt());
+        Mockito.verifyZeroInteractions(executors);
+    }
+
+    @Test
+    void removedUserIsSkippedTest() {
+        givenUsers(user("id-1", "user1", accreditation("A", LocalDate.now())));
+        Mockito.when(users.getUserById(realm, "id-1")).thenReturn(null);
+
+        AccreditationExpiryScanner scanner = new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30,
+                (s, r, expiry) -> Assertions.fail("No accreditation expected"), 2, 1);
+        scanner.run();
+
+        Assertions.assertEquals(0, scanner.getScannedUsers());
+    }
+
+    @Test
+    void parallelScanTest() {
+        LocalDate today = LocalDate.now();
+        UserModel[] all = new UserModel[10];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i % 2 == 0 ? user("id-" + i, "user", accreditation("A", today)) : user("id-" + i, "user");
+        }
+        givenUsers(all);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Mockito.when(executors.getExecutor(AccreditationExpiryScanner.WORKER_EXECUTOR_NAME)).thenReturn(executor);
+        List<AccreditationExpiry> reported = Collections.synchronizedList(new ArrayList<>());
+
+        try {
+            AccreditationExpiryScanner scanner = new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30,
+                    (s, r, expiry) -> reported.add(expiry), 2, 3);
+            scanner.run();
+
+            Assertions.assertEquals(10, scanner.getScannedUsers());
+            Assertions.assertEquals(5, reported.size());
+            Assertions.assertEquals(5, scanner.getExpired());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failingUserIsCountedTest() {
+        UserModel user = user("id-1", "user1");
+        Mockito.when(user.getAttributeStream(ATTRIBUTE)).thenThrow(new IllegalStateException("failure"));
+        givenUsers(user);
+
+        AccreditationExpiryScanner scanner = new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30,
+                (s, r, expiry) -> Assertions.fail("No accreditation expected"), 2, 1);
+        scanner.run();
+
+        Assertions.assertEquals(1, scanner.getScannedUsers());
+        Assertions.assertEquals(1, scanner.getFailedUsers());
+    }
+
+    @Test
+    void invalidParametersTest() {
+        AccreditationExpirySink sink = (s, r, expiry) -> {
+        };
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30, sink, 0, 1));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new AccreditationExpiryScanner(sessionFactory, REALM_ID, ATTRIBUTE, 30, 30, sink, 10, 0));
+    }
+
+    @Test
+    void csvSinkTest() throws IOException {
+        StringWriter writer = new StringWriter();
+        try (CsvAccreditationExpirySink sink = new CsvAccreditationExpirySink(writer)) {
+            sink.accept(session, realm, new AccreditationExpiry("id-1", "user,1", "A", LocalDate.of(2025, 1, 31), true));
+            sink.accept(session, realm, new AccreditationExpiry("id-2", "user2", "B", LocalDate.of(2025, 2, 1), false));
+        }
+
+        String[] lines = writer.toString().split("\n");
+        Assertions.assertEquals(3, lines.length);
+        Assertions.assertEquals(CsvAccreditationExpirySink.HEADER, lines[0]);
+        Assertions.assertEquals("realm-id,id-1,\"user,1\",A,2025-01-31,EXPIRED", lines[1]);
+        Assertions.assertEquals("realm-id,id-2,user2,B,2025-02-01,EXPIRING", lines[2]);
+    }
+
+    private void givenUsers(UserModel... all) {
+        Mockito.when(users.getUsersStream(realm)).thenAnswer(inv -> Stream.of(all));
+        for (UserModel user : all) {
+            Mockito.when(users.getUserById(realm, user.getId())).thenReturn(user);
+        }
+    }
+
+    private static String accreditation(String type, LocalDate expiry) {
+        return "{\"type\":\"" + type + "\",\"expiryDate\":\"" + expiry.format(FORMAT) + "\"}";
+    }
+
+    private static UserModel user(String id, String username, String... accreditations) {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getId()).thenReturn(id);
+        Mockito.when(user.getUsername()).thenReturn(username);
+        Mockito.when(user.getAttributeStream(ATTRIBUTE)).thenAnswer(inv -> Stream.of(accreditations));
+        return user;
+    }
+}
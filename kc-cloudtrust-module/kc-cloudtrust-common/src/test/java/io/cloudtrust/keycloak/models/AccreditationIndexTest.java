@@ -0,0 +1,77 @@
+package io.cloudtrust.keycloak.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class AccreditationIndexTest {
+    private static final LocalDate REFERENCE = LocalDate.of(2025, 1, 1);
+    private static final List<String> ACCREDITATIONS = Arrays.asList(
+            "{\"type\":\"A\", \"expiryDate\": \"01.01.2030\"}",
+            "{\"type\":\"A\", \"expiryDate\": \"01.01.2031\"}",
+            "{\"type\":\"B\", \"expiryDate\": \"01.01.2029\"}",
+            "{\"type\":\"C\", \"expiryDate\": \"01.01.2035\", \"revoked\": true}",
+            "not json");
+
+    @Test
+    void hasValidTest() {
+        AccreditationIndex index = AccreditationIndex.of(ACCREDITATIONS);
+        Assertions.assertTrue(index.hasValid("A", REFERENCE));
+        Assertions.assertTrue(index.hasValid("A", LocalDate.of(2030, 6, 1)));
+        Assertions.assertTrue(index.hasValid("B", REFERENCE));
+        Assertions.assertFalse(index.hasValid("B", LocalDate.of(2029, 1, 1)));
+        Assertions.assertFalse(index.hasValid("C", REFERENCE));
+        Assertions.assertFalse(index.hasValid("D", REFERENCE));
+    }
+
+    @Test
+    void nextExpiryTest() {
+        AccreditationIndex index = AccreditationIndex.of(ACCREDITATIONS);
+        Assertions.assertEquals(LocalDate.of(2029, 1, 1), index.nextExpiry(REFERENCE));
+        Assertions.assertEquals(LocalDate.of(2031, 1, 1), index.nextExpiry(LocalDate.of(2029, 1, 1)));
+        Assertions.assertNull(index.nextExpiry(LocalDate.of(2031, 1, 1)));
+        Assertions.assertNull(AccreditationIndex.EMPTY.nextExpiry());
+    }
+
+    @Test
+    void validTypesTest() {
+        AccreditationIndex index = AccreditationIndex.of(ACCREDITATIONS);
+        List<String> types = index.validTypes(REFERENCE);
+        Collections.sort(types);
+        Assertions.assertEquals(Arrays.asList("A", "B"), types);
+        Assertions.assertEquals(Collections.singletonList("A"), index.validTypes(LocalDate.of(2029, 6, 1)));
+    }
+
+    @Test
+    void updateTest() {
+        AccreditationIndex index = AccreditationIndex.of(ACCREDITATIONS);
+        Assertions.assertSame(index, index.update(new ArrayList<>(ACCREDITATIONS)));
+
+        AccreditationIndex updated = index.update(ACCREDITATIONS.subList(2, 3));
+        Assertions.assertNotSame(index, updated);
+        Assertions.assertFalse(updated.hasValid("A", REFERENCE));
+        Assertions.assertTrue(updated.hasValid("B", REFERENCE));
+    }
+
+    @Test
+    void cacheTest() {
+        UserModel user = Mockito.mock(UserModel.class);
+        Mockito.when(user.getId()).thenReturn("user-id");
+        Mockito.when(user.getAttributeStream("accreditations")).thenAnswer(invocation -> ACCREDITATIONS.stream());
+        AccreditationIndexCache cache = new AccreditationIndexCache("accreditations", 10);
+
+        AccreditationIndex index = cache.get(user);
+        Assertions.assertTrue(index.hasValid("A", REFERENCE));
+        Assertions.assertSame(index, cache.get(user));
+
+        Mockito.when(user.getAttributeStream("accreditations")).thenAnswer(invocation -> ACCREDITATIONS.subList(2, 3).stream());
+        Assertions.assertFalse(cache.get(user).hasValid("A", REFERENCE));
+    }
+}
@@ -0,0 +1,117 @@
+package io.cloudtrust.keycloak.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class CompiledAccreditationTest {
+    private static final LocalDate REFERENCE = LocalDate.of(2022, 6, 15);
+
+    @Test
+    void compileTest() {
+        CompiledAccreditation accred = CompiledAccreditation.compile("{\"type\":\"XXX\", \"expiryDate\": \"31.12.2039\", \"revoked\": true, \"creationMillis\": 1643379990000}");
+        Assertions.assertNotNull(accred);
+        Assertions.assertEquals("XXX", accred.getType());
+        Assertions.assertEquals(LocalDate.of(2039, 12, 31).toEpochDay(), accred.getExpiryEpochDay());
+        Assertions.assertTrue(accred.isRevoked());
+    }
+
+    @Test
+    void compileInvalidJsonTest() {
+        Assertions.assertNull(CompiledAccreditation.compile((String) null));
+        Assertions.assertNull(CompiledAccreditation.compile("{"));
+        Assertions.assertNull(CompiledAccreditation.compile("[]"));
+    }
+
+    @Test
+    void compileNonScalarFieldTest() {
+        List<String> documents = Arrays.asList(
+                "{\"type\":{\"revoked\":true}}",
+                "{\"type\":\"XXX\",\"expiryDate\":[\"31.12.2039\"]}",
+                "{\"type\":\"XXX\",\"revoked\":{\"type\":\"YYY\"}}",
+                "{\"type\":[],\"expiryDate\":\"31.12.2039\"}");
+        for (String json : documents) {
+            Assertions.assertNull(CompiledAccreditation.compile(json), json);
+            Assertions.assertNull(AccreditationModel.tryParse(json), json);
+            Assertions.assertTrue(CompiledAccreditation.validAccreditations(Collections.singletonList(json), REFERENCE).isEmpty(), json);
+        }
+        // Other fields may hold any value
+        Assertions.assertNotNull(CompiledAccreditation.compile("{\"type\":\"XXX\",\"details\":{\"revoked\":true}}"));
+    }
+
+    @Test
+    void compileNullModelTest() {
+        Assertions.assertNull(CompiledAccreditation.compile((AccreditationModel) null));
+    }
+
+    @Test
+    void typeIsInternedTest() {
+        CompiledAccreditation accred1 = CompiledAccreditation.compile("{\"type\":\"SHADOW\"}");
+        CompiledAccreditation accred2 = CompiledAccreditation.compile("{\"type\":\"SHADOW\"}");
+        Assertions.assertSame(accred1.getType(), accred2.getType());
+    }
+
+    @Test
+    void isValidTest() {
+        assertInvalid("{}");
+        assertInvalid("{\"type\":\"XXX\"}");
+        assertInvalid("{\"type\":\"XXX\", \"revoked\": true, \"expiryDate\": \"31.12.2039\"}");
+        assertInvalid("{\"type\":\"XXX\", \"revoked\": false, \"expiryDate\": \"not-a-date\"}");
+        assertInvalid("{\"type\":\"XXX\", \"expiryDate\": \"31.02.2039\"}");
+        assertInvalid("{\"type\":\"XXX\", \"expiryDate\": \"31.12.2039 12:00\"}");
+        assertInvalid("{\"type\":\"XXX\", \"expiryDate\": \"15.06.2022\"}");
+        assertValid("{\"type\":\"XXX\", \"expiryDate\": \"16.06.2022\"}");
+        assertValid("{\"type\":\"XXX\", \"revoked\": false, \"expiryDate\": \"1.1.2039\"}");
+        assertValid("{\"type\":\"XXX\", \"expiryDate\": \"31.12.2039\", \"extra\": {\"values\": [1, 2]}}");
+    }
+
+    @Test
+    void sameValidityAsModelTest() {
+        for (String json : Arrays.asList("{\"type\":\"XXX\", \"expiryDate\": \"31.12.2039\"}", "{\"type\":\"XXX\", \"expiryDate\": \"31.12.2019\"}",
+                "{\"type\":\"XXX\", \"expiryDate\": \"31.12.2039\", \"revoked\": true}")) {
+            AccreditationModel model = AccreditationModel.tryParse(json);
+            Assertions.assertEquals(model.isValid(), CompiledAccreditation.compile(model).isValid(LocalDate.now()));
+            Assertions.assertEquals(model.isValid(), CompiledAccreditation.compile(json).isValid(LocalDate.now()));
+        }
+    }
+
+    @Test
+    void validAccreditationsTest() {
+        List<String> accreditations = Arrays.asList(
+                "{\"type\":\"FIRST\", \"expiryDate\": \"31.12.2039\"}",
+                "{\"type\":\"EXPIRED\", \"expiryDate\": \"31.12.2019\"}",
+                "not json",
+                "{\"type\":\"REVOKED\", \"expiryDate\": \"31.12.2039\", \"revoked\": true}",
+                "{\"type\":\"SECOND\", \"expiryDate\": \"01.01.2030\"}");
+
+        Assertions.assertEquals(Arrays.asList("FIRST", "SECOND"), CompiledAccreditation.validAccreditations(accreditations, REFERENCE));
+        Assertions.assertEquals(Collections.singletonList("FIRST"), CompiledAccreditation.validAccreditations(accreditations, LocalDate.of(2035, 1, 1)));
+        Assertions.assertTrue(CompiledAccreditation.validAccreditations(Collections.emptyList(), REFERENCE).isEmpty());
+    }
+
+    @Test
+    void parseExpiryDateTest() {
+        Assertions.assertEquals((int) LocalDate.of(2023, 2, 1).toEpochDay(), AccreditationParser.parseExpiryDate("01.02.2023"));
+        Assertions.assertEquals((int) LocalDate.of(2023, 2, 1).toEpochDay(), AccreditationParser.parseExpiryDate("1.2.2023"));
+        Assertions.assertEquals(AccreditationParser.NO_EXPIRY, AccreditationParser.parseExpiryDate("2023-02-01"));
+        Assertions.assertEquals(AccreditationParser.NO_EXPIRY, AccreditationParser.parseExpiryDate("01.13.2023"));
+        Assertions.assertEquals(AccreditationParser.NO_EXPIRY, AccreditationParser.parseExpiryDate(""));
+        Assertions.assertEquals(AccreditationParser.NO_EXPIRY, AccreditationParser.parseExpiryDate(null));
+    }
+
+    private void assertInvalid(String json) {
+        CompiledAccreditation accred = CompiledAccreditation.compile(json);
+        Assertions.assertNotNull(accred);
+        Assertions.assertFalse(accred.isValid(REFERENCE));
+    }
+
+    private void assertValid(String json) {
+        CompiledAccreditation accred = CompiledAccreditation.compile(json);
+        Assertions.assertNotNull(accred);
+        Assertions.assertTrue(accred.isValid(REFERENCE));
+    }
+}
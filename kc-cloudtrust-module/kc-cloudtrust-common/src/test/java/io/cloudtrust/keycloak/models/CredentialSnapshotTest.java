@@ -0,0 +1,85 @@
+package io.cloudtrust.keycloak.models;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserCredentialManager;
+import org.keycloak.models.UserModel;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+class CredentialSnapshotTest {
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserModel user;
+    private UserCredentialManager credentialManager;
+
+    @BeforeEach
+    void setup() {
+        session = Mockito.mock(KeycloakSession.class);
+        realm = Mockito.mock(RealmModel.class);
+        user = Mockito.mock(UserModel.class);
+        credentialManager = Mockito.mock(UserCredentialManager.class);
+        KeycloakContext context = Mockito.mock(KeycloakContext.class);
+
+        Mockito.when(session.userCredentialManager()).thenReturn(credentialManager);
+        Mockito.when(session.getContext()).thenReturn(context);
+        Mockito.when(context.getRealm()).thenReturn(realm);
+        Mockito.when(realm.getId()).thenReturn("realm-id");
+        Mockito.when(user.getId()).thenReturn("user-id");
+        Mockito.when(credentialManager.getStoredCredentialsStream(realm, user)).thenAnswer(inv -> Arrays.asList(
+                credential("sms-1", "ctsms", "first"),
+                credential("otp-1", "otp", null),
+                credential("sms-2", "ctsms", "")).stream());
+    }
+
+    @Test
+    void snapshotTest() {
+        CredentialSnapshot snapshot = CredentialSnapshot.of(session, realm, user);
+        Assertions.assertEquals(3, snapshot.getCredentialsStream().count());
+        Assertions.assertEquals(Arrays.asList("sms-1", "sms-2"),
+                snapshot.getCredentialsByTypeStream("ctsms").map(CredentialModel::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(0, snapshot.getCredentialsByTypeStream("password").count());
+        Mockito.verify(credentialManager, Mockito.times(1)).getStoredCredentialsStream(realm, user);
+
+        // Credentials written earlier in the request are seen by the next snapshot
+        Assertions.assertNotSame(snapshot, CredentialSnapshot.of(session, realm, user));
+        Mockito.verify(credentialManager, Mockito.times(2)).getStoredCredentialsStream(realm, user);
+    }
+
+    @Test
+    void authenticatorBeanUsesSnapshotTest() {
+        CredentialProvider<?> provider = Mockito.mock(CredentialProvider.class);
+        Mockito.when(session.getProvider(CredentialProvider.class, "ct-sms-provider")).thenReturn(provider);
+        // The provider decides which credential is its default one
+        Mockito.when(provider.getDefaultCredential(session, realm, user)).thenReturn(credential("sms-2", "ctsms", ""));
+
+        CredentialSnapshot snapshot = CredentialSnapshot.of(session, realm, user);
+        CtAuthenticatorBean<CtAuthenticatorBean.DefaultCtCredential> bean = new CtAuthenticatorBean<>(session, user, snapshot, null,
+                "ctsms", "ct-sms-provider", CtAuthenticatorBean.DefaultCtCredential::new);
+        Assertions.assertEquals("sms-2", bean.getSelectedCredentialId());
+        Assertions.assertEquals(2, bean.getUserCredentials().size());
+        Assertions.assertEquals("first", bean.getUserCredentials().get(0).getUserLabel());
+        Assertions.assertEquals("sans.nom", bean.getUserCredentials().get(1).getUserLabel());
+
+        bean = new CtAuthenticatorBean<>(session, user, snapshot, "sms-1", "ctsms", "ct-sms-provider", CtAuthenticatorBean.DefaultCtCredential::new);
+        Assertions.assertEquals("sms-1", bean.getSelectedCredentialId());
+        Mockito.verify(credentialManager, Mockito.times(1)).getStoredCredentialsStream(realm, user);
+        Mockito.verify(provider, Mockito.times(1)).getDefaultCredential(session, realm, user);
+    }
+
+    private static CredentialModel credential(String id, String type, String userLabel) {
+        CredentialModel credential = new CredentialModel();
+        credential.setId(id);
+        credential.setType(type);
+        credential.setUserLabel(userLabel);
+        return credential;
+    }
+}
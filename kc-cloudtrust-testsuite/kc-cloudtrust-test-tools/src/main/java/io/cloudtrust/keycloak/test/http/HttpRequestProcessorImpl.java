@@ -1,7 +1,7 @@
 package io.cloudtrust.keycloak.test.http;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cloudtrust.json.JsonUtil;
 import io.cloudtrust.keycloak.test.util.JsonToolbox;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.Headers;
@@ -74,13 +74,13 @@ public class HttpRequestProcessorImpl implements HttpRequestProcessor {
     @Override
     public <T> T body(Class<T> classRef) throws IOException {
         String content = body();
-        return StringUtils.isBlank(content) ? null : new ObjectMapper().readValue(content, classRef);
+        return StringUtils.isBlank(content) ? null : JsonUtil.readValue(content, classRef);
     }
 
     @Override
     public <T> T body(TypeReference<T> typeRef) throws IOException {
         String content = body();
-        return StringUtils.isBlank(content) ? null : new ObjectMapper().readValue(content, typeRef);
+        return StringUtils.isBlank(content) ? null : JsonUtil.readValue(content, typeRef);
     }
 
     @Override
@@ -1,12 +1,12 @@
 package io.cloudtrust.keycloak.test.util;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.cloudtrust.json.JsonUtil;
 
 public class JsonToolbox {
     public static String toString(Object obj) {
         try {
-            return obj == null ? "(null)" : new ObjectMapper().writeValueAsString(obj);
+            return obj == null ? "(null)" : JsonUtil.toJson(obj);
         } catch (JsonProcessingException e) {
             return obj.toString();
         }